@@ -0,0 +1,124 @@
+package net.logstash.log4j.benchmarks;
+
+import net.logstash.log4j.JSONEventLayoutV1;
+import net.logstash.log4j.appender.ShardedFileAppender;
+import org.apache.log4j.FileAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends from several threads at once to {@link ShardedFileAppender} and to
+ * log4j's own {@link FileAppender}, both formatting with {@link JSONEventLayoutV1}.
+ * Calling doAppend directly shows how the segments scale; going through
+ * {@link Logger#callAppenders(LoggingEvent)} shows them serialized on the
+ * category's monitor again. Compare thread counts with
+ *
+ * <pre>
+ * mvn -pl jsonevent-benchmarks -am package
+ * java -jar jsonevent-benchmarks/target/benchmarks.jar AppenderBenchmark -t 1
+ * java -jar jsonevent-benchmarks/target/benchmarks.jar AppenderBenchmark -t 8
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class AppenderBenchmark {
+
+    private static final String FQCN = Logger.class.getName();
+    private static final String MESSAGE = "Processed request in 12 ms with status \"OK\"";
+
+    private File dir;
+    private File fileLog;
+    private ShardedFileAppender sharded;
+    private FileAppender file;
+    private Logger shardedLogger;
+
+    /**
+     * Each thread logs its own event, as it would in an application.
+     */
+    @State(Scope.Thread)
+    public static class ThreadEvent {
+        LoggingEvent event;
+
+        @Setup
+        public void setUp(AppenderBenchmark benchmark) {
+            event = new LoggingEvent(FQCN, benchmark.shardedLogger, Level.INFO, MESSAGE, null);
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = File.createTempFile("appender-benchmark", "");
+        dir.delete();
+        dir.mkdir();
+
+        sharded = new ShardedFileAppender();
+        sharded.setName("sharded");
+        sharded.setFile(new File(dir, "sharded.log").getPath());
+        sharded.setImmediateFlush(false);
+        sharded.setLayout(new JSONEventLayoutV1(false));
+        sharded.activateOptions();
+
+        file = new FileAppender();
+        file.setName("file");
+        fileLog = new File(dir, "file.log");
+        file.setFile(fileLog.getPath());
+        file.setImmediateFlush(false);
+        file.setBufferedIO(true);
+        file.setLayout(new JSONEventLayoutV1(false));
+        file.activateOptions();
+
+        shardedLogger = Logger.getLogger("net.logstash.log4j.benchmarks.AppenderBenchmark");
+        shardedLogger.setAdditivity(false);
+        shardedLogger.setLevel(Level.INFO);
+        shardedLogger.addAppender(sharded);
+    }
+
+    @TearDown
+    public void tearDown() {
+        shardedLogger.removeAllAppenders();
+        sharded.close();
+        file.close();
+        for (File segment : sharded.getSegmentFiles()) {
+            segment.delete();
+        }
+        fileLog.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public void shardedDoAppend(ThreadEvent thread) {
+        sharded.doAppend(thread.event);
+    }
+
+    @Benchmark
+    public void fileAppenderDoAppend(ThreadEvent thread) {
+        file.doAppend(thread.event);
+    }
+
+    @Benchmark
+    public void shardedThroughLogger(ThreadEvent thread) {
+        shardedLogger.callAppenders(thread.event);
+    }
+}
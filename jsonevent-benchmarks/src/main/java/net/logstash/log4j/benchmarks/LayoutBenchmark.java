@@ -0,0 +1,140 @@
+package net.logstash.log4j.benchmarks;
+
+import ch.qos.logback.classic.LoggerContext;
+import net.logstash.logback.JSONEventEncoderV1;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes the same event through every binding of the v1 layout, so that a change
+ * to the shared encoder shows up against all of them. Run with
+ *
+ * <pre>
+ * mvn -pl jsonevent-benchmarks -am package
+ * java -jar jsonevent-benchmarks/target/benchmarks.jar -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayoutBenchmark {
+
+    private static final String LOGGER_NAME = "net.logstash.log4j.benchmarks.LayoutBenchmark";
+    private static final String MESSAGE = "Processed request in 12 ms with status \"OK\"";
+
+    /**
+     * Discards whatever the layout writes, like an appender that is never blocked.
+     */
+    static final class DiscardingDestination implements ByteBufferDestination {
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        public ByteBuffer getByteBuffer() {
+            return buffer;
+        }
+
+        public ByteBuffer drain(ByteBuffer buf) {
+            buf.clear();
+            return buf;
+        }
+
+        public void writeBytes(ByteBuffer data) {
+            data.position(data.limit());
+        }
+
+        public void writeBytes(byte[] data, int offset, int length) {
+        }
+    }
+
+    private net.logstash.log4j.JSONEventLayoutV1 log4jLayout;
+    private LoggingEvent log4jEvent;
+
+    private net.logstash.log4j2.JSONEventLayoutV1 log4j2Layout;
+    private LogEvent log4j2Event;
+    private DiscardingDestination destination;
+
+    private JSONEventEncoderV1 logbackEncoder;
+    private ch.qos.logback.classic.spi.LoggingEvent logbackEvent;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("request_id", "6c1d1d4e");
+        properties.put("user", "bob");
+        log4jLayout = new net.logstash.log4j.JSONEventLayoutV1(false);
+        log4jLayout.setUserFields("env:bench");
+        log4jLayout.activateOptions();
+        log4jEvent = new LoggingEvent(Logger.class.getName(), Logger.getLogger(LOGGER_NAME), System.currentTimeMillis(),
+                org.apache.log4j.Level.INFO, MESSAGE, "main", null, null, null, properties);
+
+        SortedArrayStringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("request_id", "6c1d1d4e");
+        contextData.putValue("user", "bob");
+        log4j2Layout = net.logstash.log4j2.JSONEventLayoutV1.createLayout(false, "env:bench", StandardCharsets.UTF_8);
+        log4j2Event = Log4jLogEvent.newBuilder()
+                .setLoggerName(LOGGER_NAME)
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage(MESSAGE))
+                .setTimeMillis(System.currentTimeMillis())
+                .setThreadName("main")
+                .setContextData(contextData)
+                .build();
+        destination = new DiscardingDestination();
+
+        LoggerContext loggerContext = new LoggerContext();
+        logbackEncoder = new JSONEventEncoderV1();
+        logbackEncoder.setContext(loggerContext);
+        logbackEncoder.setUserFields("env:bench");
+        logbackEncoder.start();
+        logbackEvent = new ch.qos.logback.classic.spi.LoggingEvent(ch.qos.logback.classic.Logger.class.getName(),
+                loggerContext.getLogger(LOGGER_NAME), ch.qos.logback.classic.Level.INFO, MESSAGE, null, null);
+        logbackEvent.setThreadName("main");
+        logbackEvent.setMDCPropertyMap(properties);
+    }
+
+    @Benchmark
+    public String log4jFormat() {
+        return log4jLayout.format(log4jEvent);
+    }
+
+    @Benchmark
+    public int log4j2Encode() {
+        destination.buffer.clear();
+        log4j2Layout.encode(log4j2Event, destination);
+        return destination.buffer.position();
+    }
+
+    @Benchmark
+    public String log4j2ToSerializable() {
+        return log4j2Layout.toSerializable(log4j2Event);
+    }
+
+    @Benchmark
+    public byte[] logbackEncode() {
+        return logbackEncoder.encode(logbackEvent);
+    }
+}
@@ -0,0 +1,65 @@
+package net.logstash.log4j.core;
+
+/**
+ * What {@link JSONEventEncoder} needs to know about an event, whatever logging
+ * backend it comes from.
+ *
+ * Bindings usually keep one mutable view per thread and point it at the event
+ * being encoded, so that encoding does not allocate.
+ */
+public interface EventView {
+
+    long getTimestamp();
+
+    /**
+     * Write the fields that go right after "@timestamp", such as user fields. Names
+     * for which {@link JSONEventEncoder#isReservedFieldName(String)} holds must be
+     * left out, the encoder does not check.
+     */
+    void writeExtraFields(FieldWriter writer);
+
+    /**
+     * Append the rendered message, unescaped.
+     *
+     * @return false if the event has no message
+     */
+    boolean appendMessage(StringBuilder out);
+
+    boolean hasException();
+
+    String getExceptionClass();
+
+    String getExceptionMessage();
+
+    /**
+     * Append the stack trace, lines separated by "\n", unescaped.
+     *
+     * @return false if there is no stack trace
+     */
+    boolean appendStackTrace(StringBuilder out);
+
+    boolean hasLocation();
+
+    String getFileName();
+
+    String getLineNumber();
+
+    String getClassName();
+
+    String getMethodName();
+
+    String getLoggerName();
+
+    /**
+     * @return false to leave the "mdc" field out
+     */
+    boolean hasMdc();
+
+    void writeMdc(FieldWriter writer);
+
+    String getNdc();
+
+    String getLevel();
+
+    String getThreadName();
+}
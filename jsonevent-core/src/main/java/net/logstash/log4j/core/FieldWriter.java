@@ -0,0 +1,24 @@
+package net.logstash.log4j.core;
+
+/**
+ * Receives the members of a JSON object while an event is being encoded.
+ */
+public interface FieldWriter {
+
+    /**
+     * Write a member. Strings, numbers, booleans, maps, collections and arrays are
+     * encoded as such, anything else as its string value. Null values are left out.
+     *
+     * @param name  the member name
+     * @param value the value
+     */
+    void field(String name, Object value);
+
+    /**
+     * Write a member whose value is already valid JSON text.
+     *
+     * @param name the member name
+     * @param json the encoded value
+     */
+    void rawField(String name, CharSequence json);
+}
@@ -0,0 +1,70 @@
+package net.logstash.log4j.core;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A small lock-free pool of reusable scratch objects, such as encode buffers.
+ *
+ * A ThreadLocal keeps one instance per thread for as long as the thread lives,
+ * which is right for a fixed pool of platform threads but means every virtual
+ * thread allocates fresh buffers and drops them. The pool holds as many instances
+ * as there are processors times two, so it is sized to the threads that can
+ * actually be encoding at once: {@link #borrow()} takes a free one or creates a
+ * new one, {@link #release(Object)} puts it back or lets it go when the pool is
+ * full. Neither call blocks.
+ */
+public abstract class InstancePool<T> {
+
+    private final AtomicReferenceArray<T> slots;
+
+    protected InstancePool() {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    protected InstancePool(int size) {
+        slots = new AtomicReferenceArray<T>(Math.max(1, size));
+    }
+
+    /**
+     * @return a new instance, for when the pool is empty
+     */
+    protected abstract T create();
+
+    /**
+     * @return an instance no other thread is using until it is released
+     */
+    public T borrow() {
+        int length = slots.length();
+        int start = start(length);
+        for (int i = 0; i < length; i++) {
+            int index = (start + i) % length;
+            if (slots.get(index) != null) {
+                T instance = slots.getAndSet(index, null);
+                if (instance != null) {
+                    return instance;
+                }
+            }
+        }
+        return create();
+    }
+
+    /**
+     * Hand an instance back once the borrower is done with it.
+     *
+     * @param instance the borrowed instance
+     */
+    public void release(T instance) {
+        int length = slots.length();
+        int start = start(length);
+        for (int i = 0; i < length; i++) {
+            if (slots.compareAndSet((start + i) % length, null, instance)) {
+                return;
+            }
+        }
+    }
+
+    private static int start(int length) {
+        // spread threads over the slots so they do not all race for the first one
+        return (int) ((Thread.currentThread().getId() & Integer.MAX_VALUE) % length);
+    }
+}
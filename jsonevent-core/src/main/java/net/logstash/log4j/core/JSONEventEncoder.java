@@ -0,0 +1,420 @@
+package net.logstash.log4j.core;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Encodes events in the logstash v1 json_event format straight into a
+ * {@link StringBuilder}:
+ *
+ * <pre>
+ * {"@version":1,"@timestamp":"2014-01-27T19:52:35.738Z", (extra fields) "source_host":...,
+ *  "message":..., "exception":{...}, "file":..., "line_number":..., "class":..., "method":...,
+ *  "logger_name":..., "mdc":{...}, "ndc":..., "level":..., "thread_name":...}
+ * </pre>
+ *
+ * Everything is written in place with a pooled writer, so encoding an event
+ * with strings in its mdc does not allocate. The source host is encoded once and
+ * logger names once per logger. An encoder is thread-safe.
+ *
+ * A {@link TextMask} given to {@link #encode(EventView, TextMask, StringBuilder)}
+ * runs over the message, the exception message, the stack trace and the mdc
+ * values inside the output buffer, just before each is escaped.
+ */
+public class JSONEventEncoder {
+
+    public static final int VERSION = 1;
+
+    /**
+     * Loggers past this many are encoded on every event instead of cached.
+     */
+    static final int MAX_CACHED_LOGGER_NAMES = 4096;
+
+    private static final Set<String> RESERVED_FIELD_NAMES = new HashSet<String>(Arrays.asList(
+            "@version", "@timestamp", "source_host", "message", "exception", "file", "line_number", "class", "method",
+            "logger_name", "mdc", "ndc", "level", "thread_name", "detail_level"));
+
+    private final String sourceHost;
+    private final String encodedSourceHost;
+    private final ConcurrentMap<String, String> encodedLoggerNames = new ConcurrentHashMap<String, String>();
+
+    private final InstancePool<Writer> writers = new InstancePool<Writer>() {
+        protected Writer create() {
+            return new Writer();
+        }
+    };
+
+    public JSONEventEncoder(String sourceHost) {
+        this.sourceHost = sourceHost;
+        this.encodedSourceHost = sourceHost == null ? null : quote(sourceHost);
+    }
+
+    public String getSourceHost() {
+        return sourceHost;
+    }
+
+    /**
+     * Append an event, without a trailing newline.
+     *
+     * @param event the event
+     * @param out   where to append
+     */
+    public void encode(EventView event, StringBuilder out) {
+        encode(event, null, out);
+    }
+
+    /**
+     * Append an event, without a trailing newline, masking its message,
+     * exception and mdc values.
+     *
+     * @param event the event
+     * @param mask  the mask to apply, or null
+     * @param out   where to append
+     */
+    public void encode(EventView event, TextMask mask, StringBuilder out) {
+        Writer writer = writers.borrow();
+        try {
+            encode(event, mask, writer, out);
+        } finally {
+            writers.release(writer);
+        }
+    }
+
+    private void encode(EventView event, TextMask mask, Writer writer, StringBuilder out) {
+        writer.begin(out);
+
+        writer.rawField("@version", "1");
+        writer.name("@timestamp");
+        out.append('"');
+        appendTimestamp(event.getTimestamp(), out);
+        out.append('"');
+
+        event.writeExtraFields(writer);
+
+        writer.rawField("source_host", encodedSourceHost);
+
+        writer.mask = mask;
+        writer.name("message");
+        int messageStart = out.length();
+        out.append('"');
+        if (event.appendMessage(out)) {
+            writer.escapeValueFrom(messageStart + 1);
+            out.append('"');
+        } else {
+            out.setLength(messageStart);
+            out.append("null");
+        }
+
+        if (event.hasException()) {
+            writer.name("exception");
+            writer.beginObject();
+            writer.field("exception_class", event.getExceptionClass());
+            writer.field("exception_message", event.getExceptionMessage());
+            int nameStart = out.length();
+            boolean firstBefore = writer.first;
+            writer.name("stacktrace");
+            int traceStart = out.length();
+            out.append('"');
+            if (event.appendStackTrace(out)) {
+                writer.escapeValueFrom(traceStart + 1);
+                out.append('"');
+            } else {
+                out.setLength(nameStart);
+                writer.first = firstBefore;
+            }
+            writer.endObject();
+        }
+        writer.mask = null;
+
+        if (event.hasLocation()) {
+            writer.field("file", event.getFileName());
+            writer.field("line_number", event.getLineNumber());
+            writer.field("class", event.getClassName());
+            writer.field("method", event.getMethodName());
+        }
+
+        writer.rawField("logger_name", encodedLoggerName(event.getLoggerName()));
+        if (event.hasMdc()) {
+            writer.name("mdc");
+            writer.beginObject();
+            writer.mask = mask;
+            event.writeMdc(writer);
+            writer.mask = null;
+            writer.endObject();
+        }
+        writer.field("ndc", event.getNdc());
+        writer.field("level", event.getLevel());
+        writer.field("thread_name", event.getThreadName());
+
+        writer.end();
+    }
+
+    /**
+     * Whether the encoder, or a binding, writes a field by this name itself. Extra
+     * fields such as user fields must not use these names, or the event would carry
+     * the same key twice.
+     */
+    public static boolean isReservedFieldName(String name) {
+        return RESERVED_FIELD_NAMES.contains(name);
+    }
+
+    private String encodedLoggerName(String loggerName) {
+        if (loggerName == null) {
+            return null;
+        }
+        String encoded = encodedLoggerNames.get(loggerName);
+        if (encoded == null) {
+            encoded = quote(loggerName);
+            if (encodedLoggerNames.size() < MAX_CACHED_LOGGER_NAMES) {
+                encodedLoggerNames.putIfAbsent(loggerName, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Encode a string as a JSON string literal, quotes included. Meant for values
+     * that are encoded once and then written with {@link FieldWriter#rawField}.
+     */
+    public static String quote(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 2);
+        Writer writer = new Writer();
+        writer.out = out;
+        writer.string(value);
+        return out.toString();
+    }
+
+    /**
+     * Encode any value the way {@link FieldWriter#field} would write it. Meant for
+     * values that are encoded once and then written with {@link FieldWriter#rawField}.
+     */
+    public static String encodeValue(Object value) {
+        StringBuilder out = new StringBuilder();
+        Writer writer = new Writer();
+        writer.out = out;
+        writer.value(value);
+        return out.toString();
+    }
+
+    /**
+     * Append a timestamp as yyyy-MM-dd'T'HH:mm:ss.SSS'Z' (UTC) without allocating.
+     */
+    public static void appendTimestamp(long millis, StringBuilder out) {
+        long days = millis / 86400000L;
+        long millisOfDay = millis % 86400000L;
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += 86400000L;
+        }
+        // civil_from_days, proleptic Gregorian
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        int time = (int) millisOfDay;
+        pad(out, year, 4).append('-');
+        pad(out, month, 2).append('-');
+        pad(out, day, 2).append('T');
+        pad(out, time / 3600000, 2).append(':');
+        pad(out, time / 60000 % 60, 2).append(':');
+        pad(out, time / 1000 % 60, 2).append('.');
+        pad(out, time % 1000, 3).append('Z');
+    }
+
+    private static StringBuilder pad(StringBuilder out, int value, int width) {
+        for (int divisor = width == 4 ? 1000 : width == 3 ? 100 : 10; divisor > 0; divisor /= 10) {
+            out.append((char) ('0' + value / divisor % 10));
+        }
+        return out;
+    }
+
+    /**
+     * Writes JSON into the caller's builder; one per thread.
+     */
+    static final class Writer implements FieldWriter {
+        private final StringBuilder scratch = new StringBuilder(256);
+        private StringBuilder out;
+        boolean first;
+        // applied to values while set, never to member names
+        TextMask mask;
+
+        void begin(StringBuilder out) {
+            this.out = out;
+            out.append('{');
+            first = true;
+            mask = null;
+        }
+
+        void end() {
+            out.append('}');
+            out = null;
+            mask = null;
+        }
+
+        /**
+         * Open an object as the value of the member just named.
+         */
+        void beginObject() {
+            out.append('{');
+            first = true;
+        }
+
+        void endObject() {
+            out.append('}');
+            // the object was the value of a member, so the enclosing object is not empty
+            first = false;
+        }
+
+        void name(String name) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append('"');
+            int start = out.length();
+            out.append(name);
+            escapeFrom(start);
+            out.append("\":");
+        }
+
+        public void field(String name, Object value) {
+            if (value == null) {
+                return;
+            }
+            name(name);
+            value(value);
+        }
+
+        public void rawField(String name, CharSequence json) {
+            if (json == null) {
+                return;
+            }
+            name(name);
+            out.append(json);
+        }
+
+        private void value(Object value) {
+            if (value == null) {
+                out.append("null");
+            } else if (value instanceof String || value instanceof Character) {
+                string(value.toString());
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                out.append(((Number) value).longValue());
+            } else if (value instanceof Number || value instanceof Boolean) {
+                out.append(value);
+            } else if (value instanceof Map) {
+                beginObject();
+                for (Iterator it = ((Map) value).entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry entry = (Map.Entry) it.next();
+                    name(String.valueOf(entry.getKey()));
+                    value(entry.getValue());
+                }
+                endObject();
+            } else if (value instanceof Collection) {
+                array(((Collection) value).iterator());
+            } else if (value.getClass().isArray()) {
+                out.append('[');
+                int length = Array.getLength(value);
+                for (int i = 0; i < length; i++) {
+                    if (i > 0) {
+                        out.append(',');
+                    }
+                    value(Array.get(value, i));
+                }
+                out.append(']');
+            } else {
+                string(value.toString());
+            }
+        }
+
+        private void array(Iterator it) {
+            out.append('[');
+            boolean firstElement = true;
+            while (it.hasNext()) {
+                if (!firstElement) {
+                    out.append(',');
+                }
+                firstElement = false;
+                value(it.next());
+            }
+            out.append(']');
+        }
+
+        private void string(String value) {
+            out.append('"');
+            int start = out.length();
+            out.append(value);
+            escapeValueFrom(start);
+            out.append('"');
+        }
+
+        /**
+         * Mask, then escape, a value appended to the builder since start.
+         */
+        void escapeValueFrom(int start) {
+            if (mask != null) {
+                mask.mask(out, start);
+            }
+            escapeFrom(start);
+        }
+
+        /**
+         * Escape, in place, everything appended to the builder since start.
+         * Nothing is copied unless something actually needs escaping.
+         */
+        void escapeFrom(int start) {
+            int length = out.length();
+            int i = start;
+            while (i < length && !needsEscape(out.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                return;
+            }
+            scratch.setLength(0);
+            scratch.append(out, i, length);
+            out.setLength(i);
+            for (int j = 0; j < scratch.length(); j++) {
+                char c = scratch.charAt(j);
+                switch (c) {
+                    case '"': out.append("\\\""); break;
+                    case '\\': out.append("\\\\"); break;
+                    case '/': out.append("\\/"); break;
+                    case '\b': out.append("\\b"); break;
+                    case '\f': out.append("\\f"); break;
+                    case '\n': out.append("\\n"); break;
+                    case '\r': out.append("\\r"); break;
+                    case '\t': out.append("\\t"); break;
+                    default:
+                        if (needsEscape(c)) {
+                            out.append("\\u");
+                            for (int shift = 12; shift >= 0; shift -= 4) {
+                                out.append(HEX[(c >> shift) & 0xf]);
+                            }
+                        } else {
+                            out.append(c);
+                        }
+                }
+            }
+        }
+
+        private static boolean needsEscape(char c) {
+            return c < 0x20 || c == '"' || c == '\\' || c == '/' || (c >= 0x7f && c <= 0x9f) || c == '\u2028' || c == '\u2029';
+        }
+
+        private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    }
+}
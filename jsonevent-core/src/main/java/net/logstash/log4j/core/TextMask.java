@@ -0,0 +1,21 @@
+package net.logstash.log4j.core;
+
+/**
+ * Masks parts of a value while {@link JSONEventEncoder} writes it, such as
+ * secrets in the message.
+ *
+ * The encoder calls it on the raw text of the message, the exception message,
+ * the stack trace and the mdc values right after they are appended to the output
+ * and right before they are escaped, so the text is never copied out of the
+ * output buffer to be matched.
+ */
+public interface TextMask {
+
+    /**
+     * Mask, in place, the unescaped text appended to the builder since start.
+     *
+     * @param out   the output being encoded
+     * @param start where the value starts
+     */
+    void mask(StringBuilder out, int start);
+}
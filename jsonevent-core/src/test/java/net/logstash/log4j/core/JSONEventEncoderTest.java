@@ -0,0 +1,116 @@
+package net.logstash.log4j.core;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class JSONEventEncoderTest {
+
+    static class StubEventView implements EventView {
+        String message = "hello";
+        String stackTrace;
+        String fileName;
+        Map<String, Object> mdc = new LinkedHashMap<String, Object>();
+
+        public long getTimestamp() { return 1364844991207L; }
+        public void writeExtraFields(FieldWriter writer) { writer.field("user", "field"); }
+        public boolean appendMessage(StringBuilder out) {
+            if (message == null) {
+                return false;
+            }
+            out.append(message);
+            return true;
+        }
+        public boolean hasException() { return stackTrace != null; }
+        public String getExceptionClass() { return "java.lang.IllegalStateException"; }
+        public String getExceptionMessage() { return null; }
+        public boolean appendStackTrace(StringBuilder out) {
+            out.append(stackTrace);
+            return stackTrace.length() > 0;
+        }
+        public boolean hasLocation() { return fileName != null; }
+        public String getFileName() { return fileName; }
+        public String getLineNumber() { return "42"; }
+        public String getClassName() { return "Foo"; }
+        public String getMethodName() { return "bar"; }
+        public String getLoggerName() { return "logger"; }
+        public boolean hasMdc() { return true; }
+        public void writeMdc(FieldWriter writer) {
+            for (Map.Entry<String, Object> entry : mdc.entrySet()) {
+                writer.field(entry.getKey(), entry.getValue());
+            }
+        }
+        public String getNdc() { return null; }
+        public String getLevel() { return "INFO"; }
+        public String getThreadName() { return "main"; }
+    }
+
+    static String encode(EventView view) {
+        StringBuilder out = new StringBuilder();
+        new JSONEventEncoder("host").encode(view, out);
+        return out.toString();
+    }
+
+    @Test
+    public void testEncodesV1Event() {
+        StubEventView view = new StubEventView();
+        view.mdc.put("foo", "bar");
+        view.mdc.put("nested", Collections.singletonMap("count", 3));
+
+        Assert.assertEquals("{\"@version\":1,\"@timestamp\":\"2013-04-01T19:36:31.207Z\",\"user\":\"field\","
+                + "\"source_host\":\"host\",\"message\":\"hello\",\"logger_name\":\"logger\","
+                + "\"mdc\":{\"foo\":\"bar\",\"nested\":{\"count\":3}},\"level\":\"INFO\",\"thread_name\":\"main\"}",
+                encode(view));
+    }
+
+    @Test
+    public void testEncodesExceptionAndLocation() {
+        StubEventView view = new StubEventView();
+        view.message = null;
+        view.stackTrace = "java.lang.IllegalStateException\n\tat Foo.bar(Foo.java:42)";
+        view.fileName = "Foo.java";
+
+        String json = encode(view);
+        Assert.assertTrue(json, json.contains("\"message\":null,\"exception\":{\"exception_class\":\"java.lang.IllegalStateException\","
+                + "\"stacktrace\":\"java.lang.IllegalStateException\\n\\tat Foo.bar(Foo.java:42)\"},"
+                + "\"file\":\"Foo.java\",\"line_number\":\"42\",\"class\":\"Foo\",\"method\":\"bar\","));
+
+        view.stackTrace = "";
+        json = encode(view);
+        Assert.assertTrue(json, json.contains("\"exception\":{\"exception_class\":\"java.lang.IllegalStateException\"},"));
+    }
+
+    @Test
+    public void testEscapesStrings() {
+        StubEventView view = new StubEventView();
+        view.message = "say \"hi\"\\ to a/b\u0001 ";
+        view.mdc.put("we\"ird", "é");
+
+        String json = encode(view);
+        Assert.assertTrue(json, json.contains("\"message\":\"say \\\"hi\\\"\\\\ to a\\/b\\u0001\\u2028\""));
+        Assert.assertTrue(json, json.contains("\"mdc\":{\"we\\\"ird\":\"é\"}"));
+    }
+
+    @Test
+    public void testTimestamps() {
+        Assert.assertEquals("1970-01-01T00:00:00.000Z", timestamp(0L));
+        Assert.assertEquals("2000-02-29T23:59:59.999Z", timestamp(951868799999L));
+        Assert.assertEquals("1969-12-31T23:59:59.999Z", timestamp(-1L));
+        Assert.assertEquals("2013-04-01T19:36:31.207Z", timestamp(1364844991207L));
+    }
+
+    static String timestamp(long millis) {
+        StringBuilder out = new StringBuilder();
+        JSONEventEncoder.appendTimestamp(millis, out);
+        return out.toString();
+    }
+
+    @Test
+    public void testQuote() {
+        Assert.assertEquals("\"a\\\"b\\/c\\n\"", JSONEventEncoder.quote("a\"b/c\n"));
+        Assert.assertEquals("\"plain\"", JSONEventEncoder.quote("plain"));
+    }
+}
@@ -0,0 +1,305 @@
+package net.logstash.log4j2;
+
+import net.logstash.log4j.core.EventView;
+import net.logstash.log4j.core.FieldWriter;
+import net.logstash.log4j.core.InstancePool;
+import net.logstash.log4j.core.JSONEventEncoder;
+import net.logstash.log4j.data.HostData;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.layout.AbstractStringLayout;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.layout.Encoder;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.status.StatusLogger;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+import org.apache.logging.log4j.util.TriConsumer;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Log4j 2 binding of the v1 json_event layout. Events are encoded by the same
+ * core encoder as the log4j 1.2 layout, straight into log4j's per-thread
+ * StringBuilder and from there into the appender's buffer, so a steady stream of
+ * events with string context data does not allocate.
+ *
+ * <pre>
+ * &lt;JSONEventLayoutV1 locationInfo="false" userFields="env:prod,app:billing"/&gt;
+ * </pre>
+ */
+@Plugin(name = "JSONEventLayoutV1", category = Node.CATEGORY, elementType = Layout.ELEMENT_TYPE, printObject = true)
+public final class JSONEventLayoutV1 extends AbstractStringLayout {
+
+    /**
+     * Same property as the log4j 1.2 layout, fields set there win over the configured ones.
+     */
+    public static final String ADDITIONAL_DATA_PROPERTY = "net.logstash.log4j.JSONEventLayoutV1.UserFields";
+
+    private static final TriConsumer<String, Object, FieldWriter> WRITE_CONTEXT_DATA = new TriConsumer<String, Object, FieldWriter>() {
+        public void accept(String key, Object value, FieldWriter writer) {
+            writer.field(key, value);
+        }
+    };
+
+    private final boolean locationInfo;
+    private final String[] userFieldNames;
+    private final String[] userFieldValues;
+    private final JSONEventEncoder encoder;
+
+    // pooled rather than per thread: a ThreadLocal would ignore log4j2.enableThreadlocals and
+    // pin this layout's class loader to every thread that ever logged, as in a web app
+    private final InstancePool<LogEventView> views = new InstancePool<LogEventView>() {
+        protected LogEventView create() {
+            return new LogEventView();
+        }
+    };
+
+    private JSONEventLayoutV1(Charset charset, boolean locationInfo, String userFields, String sourceHost) {
+        super(charset);
+        this.locationInfo = locationInfo;
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        addUserFields(userFields, fields);
+        addUserFields(System.getProperty(ADDITIONAL_DATA_PROPERTY), fields);
+        this.userFieldNames = fields.keySet().toArray(new String[fields.size()]);
+        this.userFieldValues = fields.values().toArray(new String[fields.size()]);
+        this.encoder = new JSONEventEncoder(sourceHost);
+    }
+
+    @PluginFactory
+    public static JSONEventLayoutV1 createLayout(
+            @PluginAttribute(value = "locationInfo", defaultBoolean = false) boolean locationInfo,
+            @PluginAttribute("userFields") String userFields,
+            @PluginAttribute(value = "charset", defaultString = "UTF-8") Charset charset) {
+        return new JSONEventLayoutV1(charset, locationInfo, userFields, new HostData().getHostName());
+    }
+
+    public static JSONEventLayoutV1 createDefaultLayout() {
+        return createLayout(false, null, StandardCharsets.UTF_8);
+    }
+
+    private static void addUserFields(String data, Map<String, String> fields) {
+        if (data == null) {
+            return;
+        }
+        for (String pair : data.split(",")) {
+            String[] userField = pair.split(":", 2);
+            if (userField.length != 2) {
+                StatusLogger.getLogger().warn("Ignoring malformed user field '{}' in JSONEventLayoutV1", pair);
+                continue;
+            }
+            if (JSONEventEncoder.isReservedFieldName(userField[0])) {
+                StatusLogger.getLogger().warn("Ignoring user field '{}' in JSONEventLayoutV1, the layout writes that field itself", userField[0]);
+                continue;
+            }
+            fields.put(userField[0], userField[1]);
+        }
+    }
+
+    public boolean getLocationInfo() {
+        return locationInfo;
+    }
+
+    /**
+     * Tells the logger config to capture the caller's location on the logging
+     * thread, without which async loggers hand over events with no location.
+     */
+    public boolean requiresLocation() {
+        return locationInfo;
+    }
+
+    public String getContentType() {
+        return "application/json; charset=" + getCharset();
+    }
+
+    public String toSerializable(LogEvent event) {
+        return format(event, getStringBuilder()).toString();
+    }
+
+    public void encode(LogEvent event, ByteBufferDestination destination) {
+        StringBuilder text = format(event, getStringBuilder());
+        Encoder<StringBuilder> helper = getStringBuilderEncoder();
+        helper.encode(text, destination);
+    }
+
+    private StringBuilder format(LogEvent event, StringBuilder out) {
+        LogEventView view = views.borrow();
+        view.event = event;
+        try {
+            encoder.encode(view, out);
+        } finally {
+            view.event = null;
+            views.release(view);
+        }
+        return out.append('\n');
+    }
+
+    /**
+     * Presents a log4j 2 event to the core encoder; borrowed from a pool, so nothing
+     * is allocated per event.
+     */
+    private final class LogEventView implements EventView {
+        private LogEvent event;
+
+        public long getTimestamp() {
+            return event.getTimeMillis();
+        }
+
+        public void writeExtraFields(FieldWriter writer) {
+            for (int i = 0; i < userFieldNames.length; i++) {
+                writer.field(userFieldNames[i], userFieldValues[i]);
+            }
+        }
+
+        public boolean appendMessage(StringBuilder out) {
+            Message message = event.getMessage();
+            if (message == null) {
+                return false;
+            }
+            if (message instanceof StringBuilderFormattable) {
+                ((StringBuilderFormattable) message).formatTo(out);
+                return true;
+            }
+            String formatted = message.getFormattedMessage();
+            if (formatted == null) {
+                return false;
+            }
+            out.append(formatted);
+            return true;
+        }
+
+        public boolean hasException() {
+            return event.getThrown() != null;
+        }
+
+        public String getExceptionClass() {
+            return event.getThrown().getClass().getCanonicalName();
+        }
+
+        public String getExceptionMessage() {
+            return event.getThrown().getMessage();
+        }
+
+        /**
+         * Same text as Throwable.printStackTrace, which is what the log4j 1.2 layout
+         * writes: frames shared with the enclosing trace are folded into "... n more",
+         * and suppressed exceptions and causes are nested the same way.
+         */
+        public boolean appendStackTrace(StringBuilder out) {
+            Throwable throwable = event.getThrown();
+            Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<Throwable, Boolean>());
+            seen.add(throwable);
+            out.append(throwable);
+            StackTraceElement[] frames = throwable.getStackTrace();
+            for (StackTraceElement frame : frames) {
+                out.append("\n\tat ").append(frame);
+            }
+            for (Throwable suppressed : throwable.getSuppressed()) {
+                appendEnclosed(suppressed, frames, "Suppressed: ", "\t", seen, out);
+            }
+            if (throwable.getCause() != null) {
+                appendEnclosed(throwable.getCause(), frames, "Caused by: ", "", seen, out);
+            }
+            return true;
+        }
+
+        private void appendEnclosed(Throwable throwable, StackTraceElement[] enclosing, String caption, String prefix,
+                                    Set<Throwable> seen, StringBuilder out) {
+            out.append('\n').append(prefix).append(caption);
+            if (!seen.add(throwable)) {
+                out.append("[CIRCULAR REFERENCE: ").append(throwable).append(']');
+                return;
+            }
+            out.append(throwable);
+            StackTraceElement[] frames = throwable.getStackTrace();
+            int m = frames.length - 1;
+            int n = enclosing.length - 1;
+            while (m >= 0 && n >= 0 && frames[m].equals(enclosing[n])) {
+                m--;
+                n--;
+            }
+            for (int i = 0; i <= m; i++) {
+                out.append('\n').append(prefix).append("\tat ").append(frames[i]);
+            }
+            int common = frames.length - 1 - m;
+            if (common > 0) {
+                out.append('\n').append(prefix).append("\t... ").append(common).append(" more");
+            }
+            for (Throwable suppressed : throwable.getSuppressed()) {
+                appendEnclosed(suppressed, frames, "Suppressed: ", prefix + "\t", seen, out);
+            }
+            if (throwable.getCause() != null) {
+                appendEnclosed(throwable.getCause(), frames, "Caused by: ", prefix, seen, out);
+            }
+        }
+
+        public boolean hasLocation() {
+            return locationInfo && event.getSource() != null;
+        }
+
+        public String getFileName() {
+            return event.getSource().getFileName();
+        }
+
+        public String getLineNumber() {
+            return Integer.toString(event.getSource().getLineNumber());
+        }
+
+        public String getClassName() {
+            return event.getSource().getClassName();
+        }
+
+        public String getMethodName() {
+            return event.getSource().getMethodName();
+        }
+
+        public String getLoggerName() {
+            return event.getLoggerName();
+        }
+
+        public boolean hasMdc() {
+            return event.getContextData() != null;
+        }
+
+        public void writeMdc(FieldWriter writer) {
+            event.getContextData().forEach(WRITE_CONTEXT_DATA, writer);
+        }
+
+        public String getNdc() {
+            ThreadContext.ContextStack stack = event.getContextStack();
+            if (stack == null || stack.getDepth() == 0) {
+                return null;
+            }
+            if (stack.getDepth() == 1) {
+                return stack.peek();
+            }
+            // joined like log4j 1.2's NDC
+            StringBuilder ndc = new StringBuilder();
+            for (String entry : stack.asList()) {
+                if (ndc.length() > 0) {
+                    ndc.append(' ');
+                }
+                ndc.append(entry);
+            }
+            return ndc.toString();
+        }
+
+        public String getLevel() {
+            return event.getLevel().toString();
+        }
+
+        public String getThreadName() {
+            return event.getThreadName();
+        }
+    }
+}
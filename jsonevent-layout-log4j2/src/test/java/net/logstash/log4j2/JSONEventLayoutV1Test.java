@@ -0,0 +1,234 @@
+package net.logstash.log4j2;
+
+import junit.framework.Assert;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.async.AsyncLoggerContext;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilder;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilderFactory;
+import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class JSONEventLayoutV1Test {
+
+    private static final long TIMESTAMP = 1390852355738L;
+
+    static class CapturingDestination implements ByteBufferDestination {
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        int bytesWritten;
+
+        public ByteBuffer getByteBuffer() {
+            return buffer;
+        }
+
+        public ByteBuffer drain(ByteBuffer buf) {
+            bytesWritten += buf.position();
+            buf.clear();
+            return buf;
+        }
+
+        public void writeBytes(ByteBuffer data) {
+            bytesWritten += data.remaining();
+            buffer.put(data);
+        }
+
+        public void writeBytes(byte[] data, int offset, int length) {
+            bytesWritten += length;
+            buffer.put(data, offset, length);
+        }
+
+        String text() {
+            return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static class CapturingAppender extends AbstractAppender {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+
+        CapturingAppender(JSONEventLayoutV1 layout) {
+            super("capture", null, layout, true, Property.EMPTY_ARRAY);
+        }
+
+        public void append(LogEvent event) {
+            events.add(((JSONEventLayoutV1) getLayout()).toSerializable(event));
+        }
+    }
+
+    private static LogEvent event(String message) {
+        SortedArrayStringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("request_id", "42");
+        contextData.putValue("user", "\"bob\"");
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName("net.logstash.log4j2.Test")
+                .setLevel(Level.WARN)
+                .setMessage(new SimpleMessage(message))
+                .setTimeMillis(TIMESTAMP)
+                .setThreadName("main")
+                .setContextData(contextData)
+                .build();
+    }
+
+    @Test
+    public void testMatchesLog4jLayout() {
+        JSONEventLayoutV1 layout = JSONEventLayoutV1.createLayout(false, "env:test", StandardCharsets.UTF_8);
+        String log4j2Output = layout.toSerializable(event("line one\nline \"two\""));
+
+        net.logstash.log4j.JSONEventLayoutV1 log4jLayout = new net.logstash.log4j.JSONEventLayoutV1(false);
+        log4jLayout.setUserFields("env:test");
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("request_id", "42");
+        properties.put("user", "\"bob\"");
+        LoggingEvent log4jEvent = new LoggingEvent(Logger.class.getName(), Logger.getLogger("net.logstash.log4j2.Test"), TIMESTAMP,
+                org.apache.log4j.Level.WARN, "line one\nline \"two\"", "main", null, null, null, properties);
+        String log4jOutput = log4jLayout.format(log4jEvent);
+
+        Assert.assertTrue("Event is not newline delimited", log4j2Output.endsWith("\n"));
+        JSONObject expected = (JSONObject) JSONValue.parse(log4jOutput);
+        JSONObject actual = (JSONObject) JSONValue.parse(log4j2Output);
+        Assert.assertEquals("Log4j 2 event differs from the log4j 1.2 event", expected, actual);
+    }
+
+    @Test
+    public void testStackTraceMatchesLog4jLayout() {
+        IllegalStateException failure = nestedFailure();
+        JSONEventLayoutV1 layout = JSONEventLayoutV1.createLayout(false, null, StandardCharsets.UTF_8);
+        LogEvent event = Log4jLogEvent.newBuilder()
+                .setLoggerName("net.logstash.log4j2.Test")
+                .setLevel(Level.ERROR)
+                .setMessage(new SimpleMessage("failed"))
+                .setThrown(failure)
+                .setTimeMillis(TIMESTAMP)
+                .setThreadName("main")
+                .build();
+        String log4j2Output = layout.toSerializable(event);
+
+        net.logstash.log4j.JSONEventLayoutV1 log4jLayout = new net.logstash.log4j.JSONEventLayoutV1(false);
+        LoggingEvent log4jEvent = new LoggingEvent(Logger.class.getName(), Logger.getLogger("net.logstash.log4j2.Test"), TIMESTAMP,
+                org.apache.log4j.Level.ERROR, "failed", "main", new ThrowableInformation(failure), null, null, null);
+        String log4jOutput = log4jLayout.format(log4jEvent);
+
+        JSONObject expected = (JSONObject) JSONValue.parse(log4jOutput);
+        JSONObject actual = (JSONObject) JSONValue.parse(log4j2Output);
+        String stackTrace = (String) ((JSONObject) actual.get("exception")).get("stacktrace");
+        Assert.assertTrue("Common frames were not folded", stackTrace.contains("\t... "));
+        Assert.assertTrue("Suppressed exception is missing", stackTrace.contains("\tSuppressed: java.io.IOException: close failed"));
+        Assert.assertEquals("Log4j 2 event differs from the log4j 1.2 event", expected, actual);
+    }
+
+    private static IllegalStateException nestedFailure() {
+        try {
+            try {
+                throw new IllegalArgumentException("inner");
+            } catch (IllegalArgumentException inner) {
+                throw new RuntimeException("middle", inner);
+            }
+        } catch (RuntimeException middle) {
+            IllegalStateException outer = new IllegalStateException("outer", middle);
+            outer.addSuppressed(new java.io.IOException("close failed"));
+            return outer;
+        }
+    }
+
+    @Test
+    public void testAsyncLoggerKeepsLocation() throws InterruptedException {
+        ConfigurationBuilder<BuiltConfiguration> builder = ConfigurationBuilderFactory.newConfigurationBuilder();
+        builder.setStatusLevel(Level.ERROR);
+        builder.add(builder.newRootLogger(Level.INFO).addAttribute("includeLocation", true));
+        AsyncLoggerContext context = new AsyncLoggerContext("async-location");
+        builder.setLoggerContext(context);
+        BuiltConfiguration config = builder.build(false);
+        CapturingAppender appender = new CapturingAppender(JSONEventLayoutV1.createLayout(true, null, StandardCharsets.UTF_8));
+        appender.start();
+        context.start(config);
+        try {
+            // the root logger config only exists once the configuration has started
+            config.addAppender(appender);
+            config.getRootLogger().addAppender(appender, null, null);
+            context.updateLoggers();
+            context.getLogger("net.logstash.log4j2.Async").info("where am I");
+            String message = appender.events.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull("Async logger did not log", message);
+            JSONObject event = (JSONObject) JSONValue.parse(message);
+            Assert.assertEquals("Location was not captured on the logging thread", getClass().getName(), event.get("class"));
+            Assert.assertEquals("testAsyncLoggerKeepsLocation", event.get("method"));
+        } finally {
+            context.stop();
+        }
+    }
+
+    @Test
+    public void testEncodesIntoDestination() {
+        JSONEventLayoutV1 layout = JSONEventLayoutV1.createLayout(true, null, StandardCharsets.UTF_8);
+        CapturingDestination destination = new CapturingDestination();
+        LogEvent event = Log4jLogEvent.newBuilder()
+                .setLoggerName("net.logstash.log4j2.Test")
+                .setLevel(Level.ERROR)
+                .setMessage(new ParameterizedMessage("took {} ms", 12))
+                .setThrown(new IllegalStateException("broken", new RuntimeException("cause")))
+                .setSource(new StackTraceElement("net.logstash.log4j2.Test", "run", "Test.java", 7))
+                .setIncludeLocation(true)
+                .build();
+        layout.encode(event, destination);
+
+        JSONObject json = (JSONObject) JSONValue.parse(destination.text());
+        Assert.assertEquals("took 12 ms", json.get("message"));
+        Assert.assertEquals("7", json.get("line_number"));
+        Assert.assertEquals("run", json.get("method"));
+        JSONObject exception = (JSONObject) json.get("exception");
+        Assert.assertEquals("java.lang.IllegalStateException", exception.get("exception_class"));
+        Assert.assertEquals("broken", exception.get("exception_message"));
+        Assert.assertTrue("Cause is missing from the stacktrace",
+                ((String) exception.get("stacktrace")).contains("Caused by: java.lang.RuntimeException: cause"));
+    }
+
+    @Test
+    public void testSteadyStateEncodingDoesNotAllocate() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+
+        JSONEventLayoutV1 layout = JSONEventLayoutV1.createLayout(false, "env:test", StandardCharsets.UTF_8);
+        CapturingDestination destination = new CapturingDestination();
+        LogEvent event = event("steady state");
+        for (int i = 0; i < 20000; i++) {
+            destination.buffer.clear();
+            layout.encode(event, destination);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 10000; i++) {
+            destination.buffer.clear();
+            layout.encode(event, destination);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+        // leaves room for the measurement itself, not for anything per event
+        Assert.assertTrue("Encoding allocated " + allocated + " bytes for 10000 events", allocated < 10000);
+    }
+}
@@ -0,0 +1,360 @@
+package net.logstash.logback;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.encoder.EncoderBase;
+import net.logstash.log4j.core.EventView;
+import net.logstash.log4j.core.FieldWriter;
+import net.logstash.log4j.core.JSONEventEncoder;
+import net.logstash.log4j.data.HostData;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Logback binding of the v1 json_event layout. Events come out exactly as the
+ * log4j layouts write them, as UTF-8 with one event per line.
+ *
+ * <pre>
+ * &lt;encoder class="net.logstash.logback.JSONEventEncoderV1"&gt;
+ *   &lt;userFields&gt;env:prod,app:billing&lt;/userFields&gt;
+ * &lt;/encoder&gt;
+ * </pre>
+ *
+ * Text and bytes are built in per-thread buffers and user fields are encoded
+ * once at start, so the returned array is the only allocation for an event
+ * with string mdc values.
+ */
+public class JSONEventEncoderV1 extends EncoderBase<ILoggingEvent> {
+
+    /**
+     * Same property as the log4j layouts, fields set there win over the configured ones.
+     */
+    public static final String ADDITIONAL_DATA_PROPERTY = "net.logstash.log4j.JSONEventLayoutV1.UserFields";
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private boolean locationInfo = false;
+    private String userFields;
+
+    private String[] userFieldNames = new String[0];
+    private String[] userFieldValues = new String[0];
+    private final JSONEventEncoder encoder = new JSONEventEncoder(new HostData().getHostName());
+
+    private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+        protected Buffers initialValue() {
+            return newBuffers();
+        }
+    };
+
+    public boolean getLocationInfo() {
+        return locationInfo;
+    }
+
+    /**
+     * Include file, line, class and method. Logback has to walk the stack to find
+     * them, so this is off by default.
+     */
+    public void setLocationInfo(boolean locationInfo) {
+        this.locationInfo = locationInfo;
+    }
+
+    public String getUserFields() {
+        return userFields;
+    }
+
+    public void setUserFields(String userFields) {
+        this.userFields = userFields;
+    }
+
+    public void start() {
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        addUserFields(userFields, fields);
+        addUserFields(System.getProperty(ADDITIONAL_DATA_PROPERTY), fields);
+        String[] names = new String[fields.size()];
+        String[] values = new String[fields.size()];
+        int i = 0;
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            names[i] = field.getKey();
+            values[i] = JSONEventEncoder.quote(field.getValue());
+            i++;
+        }
+        userFieldNames = names;
+        userFieldValues = values;
+        super.start();
+    }
+
+    private void addUserFields(String data, Map<String, String> fields) {
+        if (data == null) {
+            return;
+        }
+        for (String pair : data.split(",")) {
+            String[] userField = pair.split(":", 2);
+            if (userField.length != 2) {
+                addWarn("Ignoring malformed user field '" + pair + "'");
+                continue;
+            }
+            if (JSONEventEncoder.isReservedFieldName(userField[0])) {
+                addWarn("Ignoring user field '" + userField[0] + "', the encoder writes that field itself");
+                continue;
+            }
+            fields.put(userField[0], userField[1]);
+        }
+    }
+
+    public byte[] headerBytes() {
+        return EMPTY;
+    }
+
+    public byte[] encode(ILoggingEvent event) {
+        Buffers buffers = this.buffers.get();
+        StringBuilder text = buffers.text;
+        text.setLength(0);
+        buffers.view.event = event;
+        try {
+            encoder.encode(buffers.view, text);
+        } finally {
+            buffers.view.event = null;
+        }
+        text.append('\n');
+        byte[] encoded = buffers.toUtf8(text);
+        buffers.trim();
+        return encoded;
+    }
+
+    public byte[] footerBytes() {
+        return EMPTY;
+    }
+
+    private static final class Buffers {
+        /**
+         * Largest scratch space kept between events, in chars and in bytes; an event
+         * bigger than that is encoded without growing the buffers for good.
+         */
+        static final int MAX_RETAINED = 64 * 1024;
+
+        StringBuilder text = new StringBuilder(1024);
+        byte[] bytes = new byte[1024];
+        LoggingEventView view;
+
+        /**
+         * UTF-8 encode into the reusable array, then copy out exactly what was written.
+         * Text that might not fit in {@link #MAX_RETAINED} bytes is measured first and
+         * encoded straight into an array of its own.
+         */
+        byte[] toUtf8(CharSequence text) {
+            int length = text.length();
+            if (length * 3 > MAX_RETAINED) {
+                byte[] encoded = new byte[utf8Length(text)];
+                utf8(text, encoded);
+                return encoded;
+            }
+            if (bytes.length < length * 3) {
+                bytes = new byte[length * 3];
+            }
+            return Arrays.copyOf(bytes, utf8(text, bytes));
+        }
+
+        /**
+         * Drop a text buffer an oversized event left behind.
+         */
+        void trim() {
+            if (text.capacity() > MAX_RETAINED) {
+                text = new StringBuilder(1024);
+            }
+        }
+
+        private static int utf8(CharSequence text, byte[] bytes) {
+            int length = text.length();
+            int n = 0;
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    bytes[n++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[n++] = (byte) (0xc0 | c >> 6);
+                    bytes[n++] = (byte) (0x80 | c & 0x3f);
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    bytes[n++] = (byte) (0xf0 | codePoint >> 18);
+                    bytes[n++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                    bytes[n++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                    bytes[n++] = (byte) (0x80 | codePoint & 0x3f);
+                } else if (Character.isSurrogate(c)) {
+                    bytes[n++] = (byte) '?';
+                } else {
+                    bytes[n++] = (byte) (0xe0 | c >> 12);
+                    bytes[n++] = (byte) (0x80 | c >> 6 & 0x3f);
+                    bytes[n++] = (byte) (0x80 | c & 0x3f);
+                }
+            }
+            return n;
+        }
+
+        private static int utf8Length(CharSequence text) {
+            int length = text.length();
+            int n = 0;
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    n++;
+                } else if (c < 0x800) {
+                    n += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    i++;
+                    n += 4;
+                } else if (Character.isSurrogate(c)) {
+                    n++;
+                } else {
+                    n += 3;
+                }
+            }
+            return n;
+        }
+    }
+
+    private Buffers newBuffers() {
+        Buffers buffers = new Buffers();
+        buffers.view = new LoggingEventView();
+        return buffers;
+    }
+
+    /**
+     * Presents a logback event to the core encoder.
+     */
+    private final class LoggingEventView implements EventView {
+        private ILoggingEvent event;
+
+        public long getTimestamp() {
+            return event.getTimeStamp();
+        }
+
+        public void writeExtraFields(FieldWriter writer) {
+            for (int i = 0; i < userFieldNames.length; i++) {
+                writer.rawField(userFieldNames[i], userFieldValues[i]);
+            }
+        }
+
+        public boolean appendMessage(StringBuilder out) {
+            String message = event.getFormattedMessage();
+            if (message == null) {
+                return false;
+            }
+            out.append(message);
+            return true;
+        }
+
+        public boolean hasException() {
+            return event.getThrowableProxy() != null;
+        }
+
+        public String getExceptionClass() {
+            return event.getThrowableProxy().getClassName();
+        }
+
+        public String getExceptionMessage() {
+            return event.getThrowableProxy().getMessage();
+        }
+
+        public boolean appendStackTrace(StringBuilder out) {
+            appendThrowable(event.getThrowableProxy(), null, "", out);
+            return true;
+        }
+
+        /**
+         * Same shape as the JDK's printStackTrace: common frames folded into
+         * "... n more", suppressed exceptions indented under the one that holds them
+         * and a throwable seen before written as a circular reference.
+         */
+        private void appendThrowable(IThrowableProxy proxy, String caption, String prefix, StringBuilder out) {
+            if (caption != null) {
+                out.append('\n').append(prefix).append(caption);
+            }
+            if (proxy instanceof ThrowableProxy && ((ThrowableProxy) proxy).isCyclic()) {
+                out.append("[CIRCULAR REFERENCE: ");
+                appendSummary(proxy, out);
+                out.append(']');
+                return;
+            }
+            appendSummary(proxy, out);
+            StackTraceElementProxy[] frames = proxy.getStackTraceElementProxyArray();
+            int common = proxy.getCommonFrames();
+            for (int i = 0; i < frames.length - common; i++) {
+                out.append('\n').append(prefix).append('\t').append(frames[i].getSTEAsString());
+            }
+            if (common > 0) {
+                out.append('\n').append(prefix).append("\t... ").append(common).append(" more");
+            }
+            IThrowableProxy[] suppressed = proxy.getSuppressed();
+            if (suppressed != null) {
+                for (IThrowableProxy enclosed : suppressed) {
+                    appendThrowable(enclosed, "Suppressed: ", prefix + "\t", out);
+                }
+            }
+            if (proxy.getCause() != null) {
+                appendThrowable(proxy.getCause(), "Caused by: ", prefix, out);
+            }
+        }
+
+        private void appendSummary(IThrowableProxy proxy, StringBuilder out) {
+            out.append(proxy.getClassName());
+            if (proxy.getMessage() != null) {
+                out.append(": ").append(proxy.getMessage());
+            }
+        }
+
+        public boolean hasLocation() {
+            if (!locationInfo) {
+                return false;
+            }
+            StackTraceElement[] callerData = event.getCallerData();
+            return callerData != null && callerData.length > 0;
+        }
+
+        public String getFileName() {
+            return event.getCallerData()[0].getFileName();
+        }
+
+        public String getLineNumber() {
+            return Integer.toString(event.getCallerData()[0].getLineNumber());
+        }
+
+        public String getClassName() {
+            return event.getCallerData()[0].getClassName();
+        }
+
+        public String getMethodName() {
+            return event.getCallerData()[0].getMethodName();
+        }
+
+        public String getLoggerName() {
+            return event.getLoggerName();
+        }
+
+        public boolean hasMdc() {
+            return event.getMDCPropertyMap() != null;
+        }
+
+        public void writeMdc(FieldWriter writer) {
+            for (Map.Entry<String, String> entry : event.getMDCPropertyMap().entrySet()) {
+                writer.field(entry.getKey(), entry.getValue());
+            }
+        }
+
+        public String getNdc() {
+            // logback has no NDC
+            return null;
+        }
+
+        public String getLevel() {
+            return event.getLevel().toString();
+        }
+
+        public String getThreadName() {
+            return event.getThreadName();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package net.logstash.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import junit.framework.Assert;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+public class JSONEventEncoderV1Test {
+
+    private static final long TIMESTAMP = 1390852355738L;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final LoggerContext CONTEXT = new LoggerContext();
+
+    private static JSONEventEncoderV1 encoder(String userFields) {
+        JSONEventEncoderV1 encoder = new JSONEventEncoderV1();
+        encoder.setContext(CONTEXT);
+        encoder.setUserFields(userFields);
+        encoder.start();
+        return encoder;
+    }
+
+    private static LoggingEvent event(String message, Throwable throwable, Map<String, String> mdc) {
+        Logger logger = CONTEXT.getLogger("net.logstash.logback.Test");
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, Level.WARN, message, throwable, null);
+        event.setTimeStamp(TIMESTAMP);
+        event.setThreadName("main");
+        event.setMDCPropertyMap(mdc);
+        return event;
+    }
+
+    @Test
+    public void testMatchesLog4jLayout() {
+        Map<String, String> mdc = new HashMap<String, String>();
+        mdc.put("request_id", "42");
+        mdc.put("user", "\"bob\"");
+        String logbackOutput = new String(encoder("env:test").encode(event("line one\nline \"two\" é€", null, mdc)), UTF_8);
+
+        net.logstash.log4j.JSONEventLayoutV1 log4jLayout = new net.logstash.log4j.JSONEventLayoutV1(false);
+        log4jLayout.setUserFields("env:test");
+        org.apache.log4j.spi.LoggingEvent log4jEvent = new org.apache.log4j.spi.LoggingEvent(org.apache.log4j.Logger.class.getName(),
+                org.apache.log4j.Logger.getLogger("net.logstash.logback.Test"), TIMESTAMP, org.apache.log4j.Level.WARN,
+                "line one\nline \"two\" é€", "main", null, null, null, mdc);
+        String log4jOutput = log4jLayout.format(log4jEvent);
+
+        Assert.assertTrue("Event is not newline delimited", logbackOutput.endsWith("\n"));
+        JSONObject expected = (JSONObject) JSONValue.parse(log4jOutput);
+        JSONObject actual = (JSONObject) JSONValue.parse(logbackOutput);
+        Assert.assertEquals("Logback event differs from the log4j 1.2 event", expected, actual);
+    }
+
+    @Test
+    public void testEncodesException() {
+        Exception cause = new IllegalArgumentException("cause");
+        Exception exception = new IllegalStateException("broken", cause);
+        Exception nested = new IllegalArgumentException("nested");
+        Exception suppressed = new UnsupportedOperationException("cleanup", nested);
+        exception.addSuppressed(suppressed);
+        suppressed.addSuppressed(exception);
+        String output = new String(encoder(null).encode(event("failed", exception, new HashMap<String, String>())), UTF_8);
+
+        JSONObject json = (JSONObject) JSONValue.parse(output);
+        JSONObject exceptionInformation = (JSONObject) json.get("exception");
+        Assert.assertEquals("java.lang.IllegalStateException", exceptionInformation.get("exception_class"));
+        Assert.assertEquals("broken", exceptionInformation.get("exception_message"));
+        String stackTrace = (String) exceptionInformation.get("stacktrace");
+        Assert.assertTrue(stackTrace, stackTrace.startsWith("java.lang.IllegalStateException: broken\n\tat net.logstash.logback.JSONEventEncoderV1Test"));
+        Assert.assertTrue(stackTrace, stackTrace.contains("\nCaused by: java.lang.IllegalArgumentException: cause\n\tat "));
+        Assert.assertTrue(stackTrace, stackTrace.contains("\n\tSuppressed: java.lang.UnsupportedOperationException: cleanup\n\t\tat "));
+        Assert.assertTrue(stackTrace, stackTrace.contains("\n\tCaused by: java.lang.IllegalArgumentException: nested\n\t\tat "));
+        Assert.assertTrue(stackTrace, stackTrace.contains("\n\t\tSuppressed: [CIRCULAR REFERENCE: java.lang.IllegalStateException: broken]"));
+        Assert.assertTrue(stackTrace, stackTrace.indexOf("Suppressed: java.lang.UnsupportedOperationException") < stackTrace.indexOf("Caused by: java.lang.IllegalArgumentException: cause"));
+        Assert.assertTrue(stackTrace, stackTrace.endsWith(" more"));
+    }
+
+    @Test
+    public void testEncodesOversizedEvents() {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            message.append("é€\uD83D\uDE00 ");
+        }
+        JSONEventEncoderV1 encoder = encoder(null);
+        byte[] large = encoder.encode(event(message.toString(), null, new HashMap<String, String>()));
+        JSONObject json = (JSONObject) JSONValue.parse(new String(large, UTF_8));
+        Assert.assertEquals(message.toString(), json.get("message"));
+
+        byte[] small = encoder.encode(event("after", null, new HashMap<String, String>()));
+        json = (JSONObject) JSONValue.parse(new String(small, UTF_8));
+        Assert.assertEquals("after", json.get("message"));
+    }
+}
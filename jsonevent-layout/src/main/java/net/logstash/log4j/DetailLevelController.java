@@ -0,0 +1,107 @@
+package net.logstash.log4j;
+
+import org.apache.log4j.helpers.LogLog;
+
+/**
+ * Tracks how long the layout spends encoding events and picks how much detail
+ * the next event is allowed to carry.
+ *
+ * Levels are cumulative:
+ * <ul>
+ *   <li>{@link #FULL} - everything is emitted</li>
+ *   <li>{@link #DROP_LOCATION} - no location information</li>
+ *   <li>{@link #TRUNCATE_STACKTRACE} - stack traces are cut to a fixed number of lines</li>
+ *   <li>{@link #DROP_VERBOSE_MDC} - the mdc is dropped from events below WARN</li>
+ * </ul>
+ *
+ * The encode time is smoothed with an exponentially weighted moving average. The level
+ * goes up one step as soon as the average crosses the threshold for the next level and
+ * comes back down one step once it has stayed below {@link #RECOVERY_FACTOR} of the
+ * threshold for the current level for a run of consecutive events, so that a degraded
+ * layout does not flap back to full detail on the first cheap event.
+ *
+ * Shedding detail is what makes encoding cheap, so under steady load the average drops
+ * below the recovery threshold even though the load has not gone away. When the level
+ * has to go up again soon after coming down, the run of events needed to come down next
+ * time doubles, from {@link #MIN_RECOVERY_EVENTS} up to {@link #MAX_RECOVERY_EVENTS};
+ * it starts over once a recovery holds.
+ */
+public class DetailLevelController {
+
+    public static final int FULL = 0;
+    public static final int DROP_LOCATION = 1;
+    public static final int TRUNCATE_STACKTRACE = 2;
+    public static final int DROP_VERBOSE_MDC = 3;
+
+    public static final String DEFAULT_THRESHOLDS = "200,500,1000";
+    public static final double RECOVERY_FACTOR = 0.5;
+
+    public static final int MIN_RECOVERY_EVENTS = 100;
+    public static final int MAX_RECOVERY_EVENTS = 1 << 20;
+
+    private static final double SMOOTHING = 0.1;
+
+    private final long[] thresholdNanos;
+    private volatile double averageNanos = 0;
+    private volatile int level = FULL;
+
+    // racy like the average: a lost update only delays a step a little
+    private long events;
+    private long recoveredAt;
+    private int recoveryEvents = MIN_RECOVERY_EVENTS;
+    private int eventsBelowRecovery;
+
+    /**
+     * @param thresholds comma-separated average encode times, in microseconds, at which
+     *                   the levels above {@link #FULL} kick in (at most three values).
+     */
+    public DetailLevelController(String thresholds) {
+        String[] parts = thresholds.split(",");
+        if (parts.length > DROP_VERBOSE_MDC) {
+            LogLog.warn("[DetailLevelController] Only " + DROP_VERBOSE_MDC + " thresholds are used, ignoring the rest of: " + thresholds);
+        }
+        int count = Math.min(parts.length, DROP_VERBOSE_MDC);
+        thresholdNanos = new long[count];
+        for (int i = 0; i < count; i++) {
+            thresholdNanos[i] = Long.parseLong(parts[i].trim()) * 1000L;
+        }
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public long getAverageNanos() {
+        return (long) averageNanos;
+    }
+
+    /**
+     * Feed the time it took to encode one event and move the level if needed.
+     * Threads may call this concurrently; an update lost to a race only makes the
+     * average move a little slower.
+     *
+     * @param nanos encode time of the last event
+     */
+    public void record(long nanos) {
+        double average = averageNanos + SMOOTHING * (nanos - averageNanos);
+        averageNanos = average;
+
+        long event = ++events;
+        int current = level;
+        if (current < thresholdNanos.length && average > thresholdNanos[current]) {
+            // back up right after a recovery: the cheap events were only cheap because detail was shed
+            recoveryEvents = recoveredAt > 0 && event - recoveredAt < recoveryEvents
+                    ? Math.min(recoveryEvents * 2, MAX_RECOVERY_EVENTS) : MIN_RECOVERY_EVENTS;
+            eventsBelowRecovery = 0;
+            level = current + 1;
+        } else if (current > FULL && average < thresholdNanos[current - 1] * RECOVERY_FACTOR) {
+            if (++eventsBelowRecovery >= recoveryEvents) {
+                eventsBelowRecovery = 0;
+                recoveredAt = event;
+                level = current - 1;
+            }
+        } else {
+            eventsBelowRecovery = 0;
+        }
+    }
+}
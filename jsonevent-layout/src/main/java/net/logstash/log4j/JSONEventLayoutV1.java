@@ -0,0 +1,614 @@
+package net.logstash.log4j;
+
+import net.logstash.log4j.core.EventView;
+import net.logstash.log4j.core.FieldWriter;
+import net.logstash.log4j.core.InstancePool;
+import net.logstash.log4j.core.JSONEventEncoder;
+import net.logstash.log4j.data.HostData;
+import net.logstash.log4j.fields.FieldProvider;
+import net.logstash.log4j.fields.FieldProviders;
+import net.minidev.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.FastDateFormat;
+import org.apache.log4j.Layout;
+import org.apache.log4j.Level;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+public class JSONEventLayoutV1 extends Layout {
+
+    private boolean locationInfo = false;
+    private String customUserFields;
+
+    private boolean ignoreThrowable = false;
+
+    private boolean activeIgnoreThrowable = ignoreThrowable;
+    private String hostname = new HostData().getHostName();
+    private final JSONEventEncoder encoder = new JSONEventEncoder(hostname);
+    private final InstancePool<LoggingEventView> eventViews = new InstancePool<LoggingEventView>() {
+        protected LoggingEventView create() {
+            return new LoggingEventView();
+        }
+    };
+
+    private volatile CachedUserFields cachedUserFields = new CachedUserFields(null, null, null, new LinkedHashMap<String, String>());
+
+    private boolean adaptiveDetail = false;
+    private String detailThresholds = DetailLevelController.DEFAULT_THRESHOLDS;
+    private int stackTraceDepth = 10;
+    private DetailLevelController detailController = new DetailLevelController(detailThresholds);
+
+    private String redactKeys;
+    private String redactMdcKeys;
+    private boolean redactEmails = false;
+    private boolean redactCards = false;
+    private String redactMask = Redactor.DEFAULT_MASK;
+    private Redactor redactor;
+
+    private String bulkIndex;
+    private String bulkAction = "index";
+    private FastDateFormat bulkIndexFormat;
+    private long bulkIndexPeriod;
+    private volatile BulkActionLine cachedBulkActionLine;
+
+    private String fieldProviderClasses;
+    private List<FieldProvider> extraFieldProviders = new ArrayList<FieldProvider>();
+    private FieldProviders fieldProviders;
+
+    public static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    public static final FastDateFormat ISO_DATETIME_TIME_ZONE_FORMAT_WITH_MILLIS = FastDateFormat.getInstance("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", UTC);
+    public static final String ADDITIONAL_DATA_PROPERTY = "net.logstash.log4j.JSONEventLayoutV1.UserFields";
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final long MILLIS_PER_HOUR = 60L * 60 * 1000;
+
+    public static String dateFormat(long timestamp) {
+        return ISO_DATETIME_TIME_ZONE_FORMAT_WITH_MILLIS.format(timestamp);
+    }
+
+    /**
+     * For backwards compatibility, the default is to generate location information
+     * in the log messages.
+     */
+    public JSONEventLayoutV1() {
+        this(true);
+    }
+
+    /**
+     * Creates a layout that optionally inserts location information into log messages.
+     *
+     * @param locationInfo whether or not to include location information in the log messages.
+     */
+    public JSONEventLayoutV1(boolean locationInfo) {
+        this.locationInfo = locationInfo;
+    }
+
+    public String format(LoggingEvent loggingEvent) {
+        long encodeStart = adaptiveDetail ? System.nanoTime() : 0L;
+        int detailLevel = adaptiveDetail ? detailController.getLevel() : DetailLevelController.FULL;
+
+        /**
+         * The field logic is shared with the other bindings through the core encoder,
+         * this layout only tells it what the log4j event looks like
+         */
+        LoggingEventView eventView = eventViews.borrow();
+        String encoded;
+        try {
+            StringBuilder buffer = eventView.buffer;
+            eventView.reset(loggingEvent, detailLevel);
+            buffer.setLength(0);
+            encoder.encode(eventView, redactor, buffer);
+            buffer.append('\n');
+            encoded = buffer.toString();
+        } finally {
+            eventView.reset(null, DetailLevelController.FULL);
+            eventViews.release(eventView);
+        }
+        if (bulkIndexFormat != null) {
+            encoded = bulkActionLine(loggingEvent.getTimeStamp()) + encoded;
+        }
+        if (adaptiveDetail) {
+            detailController.record(System.nanoTime() - encodeStart);
+        }
+        return encoded;
+    }
+
+    public boolean ignoresThrowable() {
+        return ignoreThrowable;
+    }
+
+    /**
+     * Query whether log messages include location information.
+     *
+     * @return true if location information is included in log messages, false otherwise.
+     */
+    public boolean getLocationInfo() {
+        return locationInfo;
+    }
+
+    /**
+     * Set whether log messages should include location information.
+     *
+     * @param locationInfo true if location information should be included, false otherwise.
+     */
+    public void setLocationInfo(boolean locationInfo) {
+        this.locationInfo = locationInfo;
+    }
+
+    public String getUserFields() { return customUserFields; }
+    public void setUserFields(String userFields) { this.customUserFields = userFields; }
+
+    /**
+     * Query whether the layout sheds detail when encoding gets slow.
+     *
+     * @return true if adaptive detail is enabled, false otherwise.
+     */
+    public boolean getAdaptiveDetail() {
+        return adaptiveDetail;
+    }
+
+    /**
+     * Set whether the layout should step down through the detail levels of
+     * {@link DetailLevelController} when encoding gets slow, and stamp each
+     * event with the "detail_level" it was encoded at.
+     *
+     * @param adaptiveDetail true to enable adaptive detail, false otherwise.
+     */
+    public void setAdaptiveDetail(boolean adaptiveDetail) {
+        this.adaptiveDetail = adaptiveDetail;
+    }
+
+    public String getDetailThresholds() { return detailThresholds; }
+
+    /**
+     * Set the average encode times, in microseconds, at which each detail level kicks in.
+     *
+     * @param detailThresholds comma-separated thresholds, e.g. "200,500,1000"
+     */
+    public void setDetailThresholds(String detailThresholds) {
+        try {
+            this.detailController = new DetailLevelController(detailThresholds);
+            this.detailThresholds = detailThresholds;
+        } catch (NumberFormatException e) {
+            LogLog.warn("[" + this.getClass().getSimpleName() + "] Invalid DetailThresholds '" + detailThresholds + "', keeping " + this.detailThresholds);
+        }
+    }
+
+    public int getStackTraceDepth() { return stackTraceDepth; }
+    public void setStackTraceDepth(int stackTraceDepth) { this.stackTraceDepth = stackTraceDepth; }
+
+    /**
+     * The current detail level, one of the constants of {@link DetailLevelController}.
+     */
+    public int getDetailLevel() {
+        return adaptiveDetail ? detailController.getLevel() : DetailLevelController.FULL;
+    }
+
+    public String getRedactKeys() { return redactKeys; }
+
+    /**
+     * Set the literals whose following value gets masked, e.g. "password=,Bearer ".
+     * Keys are not trimmed, so trailing spaces are significant.
+     *
+     * @param redactKeys comma-separated key literals
+     */
+    public void setRedactKeys(String redactKeys) { this.redactKeys = redactKeys; }
+
+    public String getRedactMdcKeys() { return redactMdcKeys; }
+
+    /**
+     * Set the mdc keys whose values are always masked, compared case-insensitively.
+     *
+     * @param redactMdcKeys comma-separated mdc keys
+     */
+    public void setRedactMdcKeys(String redactMdcKeys) { this.redactMdcKeys = redactMdcKeys; }
+
+    public boolean getRedactEmails() { return redactEmails; }
+    public void setRedactEmails(boolean redactEmails) { this.redactEmails = redactEmails; }
+
+    public boolean getRedactCards() { return redactCards; }
+    public void setRedactCards(boolean redactCards) { this.redactCards = redactCards; }
+
+    public String getRedactMask() { return redactMask; }
+    public void setRedactMask(String redactMask) { this.redactMask = redactMask; }
+
+    public String getBulkIndex() { return bulkIndex; }
+
+    /**
+     * Set the index name pattern for Elasticsearch _bulk output. When set, every event is
+     * preceded by an action line naming the index, so the output can be POSTed to _bulk as is.
+     * The pattern is a date format applied to the event @timestamp in UTC, with the literal
+     * parts quoted, e.g. "'logstash-'yyyy.MM.dd". Action lines are cached for as long as
+     * the finest field of the pattern stays the same, e.g. per hour for "'logstash-'yyyy.MM.dd.HH".
+     *
+     * @param bulkIndex the index name pattern, or null to write plain events
+     */
+    public void setBulkIndex(String bulkIndex) { this.bulkIndex = bulkIndex; }
+
+    public String getBulkAction() { return bulkAction; }
+
+    /**
+     * Set the _bulk action, "index" by default. Use "create" for data streams.
+     * Anything else is rejected, as the line carries no document for "update" and
+     * "delete" would drop the event.
+     *
+     * @param bulkAction "index" or "create"
+     */
+    public void setBulkAction(String bulkAction) {
+        if ("index".equals(bulkAction) || "create".equals(bulkAction)) {
+            this.bulkAction = bulkAction;
+        } else {
+            LogLog.warn("[" + this.getClass().getSimpleName() + "] Invalid BulkAction '" + bulkAction + "', keeping " + this.bulkAction);
+        }
+    }
+
+    public String getFieldProviders() { return fieldProviderClasses; }
+
+    /**
+     * Set the {@link FieldProvider} implementations to run, as comma-separated class names.
+     *
+     * @param fieldProviders the provider class names
+     */
+    public void setFieldProviders(String fieldProviders) { this.fieldProviderClasses = fieldProviders; }
+
+    /**
+     * Add a provider instance on top of the configured class names. Takes effect on the
+     * next call to {@link #activateOptions()}.
+     *
+     * @param provider the provider to add
+     */
+    public void addFieldProvider(FieldProvider provider) {
+        extraFieldProviders.add(provider);
+    }
+
+    public void activateOptions() {
+        activeIgnoreThrowable = ignoreThrowable;
+
+        if (fieldProviders != null) {
+            fieldProviders.stop();
+            fieldProviders = null;
+        }
+        List<FieldProvider> providers = new ArrayList<FieldProvider>();
+        if (fieldProviderClasses != null) {
+            for (String className : fieldProviderClasses.split(",")) {
+                try {
+                    providers.add((FieldProvider) Class.forName(className.trim()).getDeclaredConstructor().newInstance());
+                } catch (InvocationTargetException e) {
+                    LogLog.error("[" + this.getClass().getSimpleName() + "] Field provider " + className.trim() + " failed to start", e.getCause());
+                } catch (Exception e) {
+                    LogLog.error("[" + this.getClass().getSimpleName() + "] Could not create field provider " + className.trim(), e);
+                }
+            }
+        }
+        providers.addAll(extraFieldProviders);
+        if (!providers.isEmpty()) {
+            fieldProviders = new FieldProviders(providers);
+        }
+
+        bulkIndexFormat = null;
+        cachedBulkActionLine = null;
+        if (bulkIndex != null) {
+            try {
+                bulkIndexFormat = FastDateFormat.getInstance(bulkIndex, UTC);
+                bulkIndexPeriod = indexPeriod(bulkIndex);
+            } catch (IllegalArgumentException e) {
+                LogLog.error("[" + this.getClass().getSimpleName() + "] Invalid BulkIndex pattern '" + bulkIndex + "', writing plain events", e);
+            }
+        }
+
+        /**
+         * Compile the redaction rules once, the hot path only runs the automaton
+         */
+        if (redactKeys != null || redactMdcKeys != null || redactEmails || redactCards) {
+            List<String> keys = new ArrayList<String>();
+            if (redactKeys != null) {
+                for (String key : redactKeys.split(",")) {
+                    keys.add(key);
+                }
+            }
+            List<String> mdcKeys = new ArrayList<String>();
+            if (redactMdcKeys != null) {
+                for (String key : redactMdcKeys.split(",")) {
+                    mdcKeys.add(key.trim());
+                }
+            }
+            redactor = new Redactor(keys, redactEmails, redactCards, mdcKeys, redactMask);
+        } else {
+            redactor = null;
+        }
+    }
+
+    /**
+     * The action line only changes when the finest field of the index pattern does,
+     * so it is encoded once per such period.
+     */
+    private String bulkActionLine(long timestamp) {
+        long period = timestamp / bulkIndexPeriod;
+        if (timestamp < 0 && timestamp % bulkIndexPeriod != 0) {
+            period--;
+        }
+        BulkActionLine cached = cachedBulkActionLine;
+        if (cached == null || cached.period != period) {
+            JSONObject target = new JSONObject();
+            target.put("_index", bulkIndexFormat.format(timestamp));
+            JSONObject action = new JSONObject();
+            action.put(bulkAction, target);
+            cached = new BulkActionLine(period, action.toString() + "\n");
+            cachedBulkActionLine = cached;
+        }
+        return cached.line;
+    }
+
+    /**
+     * How long an index name made from the pattern stays the same, going by its finest
+     * field outside quotes. Anything coarser than a day is still cached per day.
+     */
+    static long indexPeriod(String pattern) {
+        long period = MILLIS_PER_DAY;
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted) {
+                if (c == 'S') {
+                    period = Math.min(period, 1L);
+                } else if (c == 's') {
+                    period = Math.min(period, 1000L);
+                } else if (c == 'm') {
+                    period = Math.min(period, 60L * 1000);
+                } else if (c == 'H' || c == 'k' || c == 'K' || c == 'h' || c == 'a') {
+                    period = Math.min(period, MILLIS_PER_HOUR);
+                }
+            }
+        }
+        return period;
+    }
+
+    private String truncateStackTrace(String[] lines) {
+        if (lines.length <= stackTraceDepth) {
+            return StringUtils.join(lines, "\n");
+        }
+        StringBuilder truncated = new StringBuilder();
+        for (int i = 0; i < stackTraceDepth; i++) {
+            truncated.append(lines[i]).append('\n');
+        }
+        truncated.append("\t... ").append(lines.length - stackTraceDepth).append(" more");
+        return truncated.toString();
+    }
+
+    /**
+     * User fields only get parsed again when the config, the system property or the
+     * field providers change. A field provider wins over a user field of the same name.
+     */
+    private Map<String, String> userFields() {
+        String userFieldsConfig = getUserFields();
+        String userFieldsProperty = System.getProperty(ADDITIONAL_DATA_PROPERTY);
+        FieldProviders providers = fieldProviders;
+        CachedUserFields cached = cachedUserFields;
+        if (!StringUtils.equals(userFieldsConfig, cached.config) || !StringUtils.equals(userFieldsProperty, cached.property)
+                || providers != cached.providers) {
+            String whoami = this.getClass().getSimpleName();
+            Map<String, String> userFields = new LinkedHashMap<String, String>();
+
+            /**
+             * Extract and add fields from log4j config, if defined
+             */
+            if (userFieldsConfig != null) {
+                LogLog.debug("["+whoami+"] Got user data from log4j property: "+ userFieldsConfig);
+                addUserFields(userFieldsConfig, userFields);
+            }
+
+            /**
+             * Extract fields from system properties, if defined
+             * Note that CLI props will override conflicts with log4j config
+             */
+            if (userFieldsProperty != null) {
+                if (userFieldsConfig != null) {
+                    LogLog.warn("["+whoami+"] Loading UserFields from command-line. This will override any UserFields set in the log4j configuration file");
+                }
+                LogLog.debug("["+whoami+"] Got user data from system property: " + userFieldsProperty);
+                addUserFields(userFieldsProperty, userFields);
+            }
+
+            if (providers != null) {
+                for (Iterator<String> it = userFields.keySet().iterator(); it.hasNext(); ) {
+                    String key = it.next();
+                    if (providers.provides(key)) {
+                        LogLog.warn("[" + whoami + "] Ignoring user field '" + key + "', a field provider writes that field");
+                        it.remove();
+                    }
+                }
+            }
+
+            cached = new CachedUserFields(userFieldsConfig, userFieldsProperty, providers, userFields);
+            cachedUserFields = cached;
+        }
+        return cached.fields;
+    }
+
+    private void addUserFields(String data, Map<String, String> userFields) {
+        if (null != data) {
+            String[] pairs = data.split(",");
+            for (String pair : pairs) {
+                String[] userField = pair.split(":", 2);
+                if (userField[0] != null) {
+                    String key = userField[0];
+                    String val = userField[1];
+                    if (JSONEventEncoder.isReservedFieldName(key)) {
+                        LogLog.warn("[" + this.getClass().getSimpleName() + "] Ignoring user field '" + key + "', the layout writes that field itself");
+                        continue;
+                    }
+                    userFields.put(key, val);
+                }
+            }
+        }
+    }
+
+    private static final class CachedUserFields {
+        final String config;
+        final String property;
+        final FieldProviders providers;
+        final Map<String, String> fields;
+
+        CachedUserFields(String config, String property, FieldProviders providers, Map<String, String> fields) {
+            this.config = config;
+            this.property = property;
+            this.providers = providers;
+            this.fields = fields;
+        }
+    }
+
+    private static final class BulkActionLine {
+        final long period;
+        final String line;
+
+        BulkActionLine(long period, String line) {
+            this.period = period;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Presents the log4j event to the core encoder at the current detail level.
+     * The encoder redacts values itself while escaping them; only masked mdc keys
+     * are handled here. Borrowed from a pool for each event, along with the buffer
+     * the event is encoded into, so events can be formatted concurrently.
+     */
+    private class LoggingEventView implements EventView {
+        private final StringBuilder buffer = new StringBuilder(1024);
+        private LoggingEvent event;
+        private int detailLevel;
+        private Map mdc;
+
+        void reset(LoggingEvent event, int detailLevel) {
+            this.event = event;
+            this.detailLevel = detailLevel;
+            this.mdc = event == null ? null : event.getProperties();
+        }
+
+        public long getTimestamp() {
+            return event.getTimeStamp();
+        }
+
+        public void writeExtraFields(FieldWriter writer) {
+            /**
+             * Let consumers know when they are looking at a degraded event
+             */
+            if (adaptiveDetail) {
+                writer.field("detail_level", detailLevel);
+            }
+
+            for (Map.Entry<String, String> userField : userFields().entrySet()) {
+                writer.field(userField.getKey(), userField.getValue());
+            }
+
+            /**
+             * Add fields from the configured providers, constant and interval
+             * fields are already encoded and only get copied
+             */
+            if (fieldProviders != null) {
+                fieldProviders.addFields(writer, event);
+            }
+        }
+
+        public boolean appendMessage(StringBuilder out) {
+            String message = event.getRenderedMessage();
+            if (message == null) {
+                return false;
+            }
+            out.append(message);
+            return true;
+        }
+
+        public boolean hasException() {
+            return event.getThrowableInformation() != null;
+        }
+
+        public String getExceptionClass() {
+            return event.getThrowableInformation().getThrowable().getClass().getCanonicalName();
+        }
+
+        public String getExceptionMessage() {
+            return event.getThrowableInformation().getThrowable().getMessage();
+        }
+
+        public boolean appendStackTrace(StringBuilder out) {
+            String[] lines = event.getThrowableInformation().getThrowableStrRep();
+            if (lines == null) {
+                return false;
+            }
+            String stackTrace = detailLevel >= DetailLevelController.TRUNCATE_STACKTRACE
+                    ? truncateStackTrace(lines)
+                    : StringUtils.join(lines, "\n");
+            out.append(stackTrace);
+            return true;
+        }
+
+        public boolean hasLocation() {
+            return locationInfo && detailLevel < DetailLevelController.DROP_LOCATION;
+        }
+
+        public String getFileName() {
+            return event.getLocationInformation().getFileName();
+        }
+
+        public String getLineNumber() {
+            return event.getLocationInformation().getLineNumber();
+        }
+
+        public String getClassName() {
+            return event.getLocationInformation().getClassName();
+        }
+
+        public String getMethodName() {
+            return event.getLocationInformation().getMethodName();
+        }
+
+        public String getLoggerName() {
+            return event.getLoggerName();
+        }
+
+        public boolean hasMdc() {
+            return mdc != null
+                    && (detailLevel < DetailLevelController.DROP_VERBOSE_MDC || event.getLevel().isGreaterOrEqual(Level.WARN));
+        }
+
+        public void writeMdc(FieldWriter writer) {
+            Redactor mdcRedactor = redactor;
+            for (Iterator it = mdc.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry entry = (Map.Entry) it.next();
+                String key = String.valueOf(entry.getKey());
+                Object value = entry.getValue();
+                if (mdcRedactor != null && value != null) {
+                    if (mdcRedactor.isMaskedKey(key)) {
+                        value = mdcRedactor.getMask();
+                    } else if (value instanceof Map) {
+                        // masked keys can be nested too; the encoder masks the text itself
+                        value = mdcRedactor.maskKeys((Map) value);
+                    }
+                }
+                writer.field(key, value);
+            }
+        }
+
+        public String getNdc() {
+            return event.getNDC();
+        }
+
+        public String getLevel() {
+            return event.getLevel().toString();
+        }
+
+        public String getThreadName() {
+            return event.getThreadName();
+        }
+    }
+}
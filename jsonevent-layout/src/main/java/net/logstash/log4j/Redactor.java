@@ -0,0 +1,443 @@
+package net.logstash.log4j;
+
+import net.logstash.log4j.core.TextMask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Masks secrets and personal data in strings before they are encoded.
+ *
+ * Everything is compiled once into a single Aho-Corasick automaton over the
+ * configured key literals (e.g. "password=", "Bearer "), and each string is
+ * scanned exactly once. While scanning, the automaton is stepped for every char
+ * and two anchored validators run alongside it:
+ * <ul>
+ *   <li>email - on every '@', the local part and domain around it are checked</li>
+ *   <li>card - runs of 13 to 19 digits (optionally separated by spaces or dashes)
+ *       that pass the Luhn check</li>
+ * </ul>
+ * When a key literal matches, the value following it (up to the next whitespace,
+ * quote, comma, semicolon or ampersand) is masked and the key itself is kept.
+ * A card number that starts in such a value is masked up to its last digit, even
+ * when it is split by spaces.
+ *
+ * Nothing is allocated for a string that contains nothing to mask; the same
+ * instance is handed back.
+ */
+public class Redactor implements TextMask {
+
+    public static final String DEFAULT_MASK = "****";
+
+    private static final int ROOT = 0;
+
+    private final String mask;
+    private final boolean emails;
+    private final boolean cards;
+    private final Set<String> maskedKeys;
+
+    // automaton, one entry per node: sorted transition chars and their targets
+    private char[][] edgeChars;
+    private int[][] edgeTargets;
+    private int[] failure;
+    // length of the longest literal ending at this node (following failure links), 0 if none
+    private int[] matchLength;
+
+    /**
+     * @param keys       literals whose following value is masked
+     * @param emails     whether to mask email addresses
+     * @param cards      whether to mask Luhn-valid card numbers
+     * @param mdcKeys    mdc keys (case-insensitive) whose whole value is masked
+     * @param mask       the replacement for anything masked
+     */
+    public Redactor(List<String> keys, boolean emails, boolean cards, List<String> mdcKeys, String mask) {
+        this.emails = emails;
+        this.cards = cards;
+        this.mask = mask;
+        this.maskedKeys = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        maskedKeys.addAll(mdcKeys);
+        compile(keys);
+    }
+
+    /**
+     * Redact a string.
+     *
+     * @param value the string to scan, may be null
+     * @return the very same instance if nothing matched, otherwise a masked copy
+     */
+    public String redact(String value) {
+        if (value == null) {
+            return null;
+        }
+        int length = value.length();
+        int[] ranges = scan(value, 0, length);
+        if (ranges == null) {
+            return value;
+        }
+        StringBuilder redacted = new StringBuilder(length);
+        int last = 0;
+        for (int r = 0; r < ranges[0]; r++) {
+            redacted.append(value, last, ranges[1 + 2 * r]).append(mask);
+            last = ranges[2 + 2 * r];
+        }
+        redacted.append(value, last, length);
+        return redacted.toString();
+    }
+
+    /**
+     * Redact, in place, the text appended to a builder since start. This is how
+     * {@link JSONEventLayoutV1} redacts, through the encoder's output buffer.
+     *
+     * The email and key matchers look back to the start of a local part and ahead
+     * to the end of a value before they know what to mask, so this runs as its own
+     * scan just before the encoder escapes the same region rather than inside the
+     * escaping loop. Nothing is copied when nothing matches.
+     */
+    public void mask(StringBuilder out, int start) {
+        int[] ranges = scan(out, start, out.length());
+        if (ranges == null) {
+            return;
+        }
+        // back to front, so the ranges still to go keep their offsets
+        for (int r = ranges[0] - 1; r >= 0; r--) {
+            out.replace(ranges[1 + 2 * r], ranges[2 + 2 * r], mask);
+        }
+    }
+
+    /**
+     * @return whether the whole value of this mdc key is masked
+     */
+    public boolean isMaskedKey(String key) {
+        return maskedKeys.contains(key);
+    }
+
+    public String getMask() {
+        return mask;
+    }
+
+    /**
+     * Find what to mask between from and to.
+     *
+     * @return null if nothing, otherwise the number of ranges followed by their start and end offsets
+     */
+    private int[] scan(CharSequence value, int from, int length) {
+        int[] ranges = null;
+        int covered = from;
+
+        int state = ROOT;
+        int digitStart = -1;
+        int digitEnd = -1;
+        int digits = 0;
+
+        for (int i = from; i < length; i++) {
+            char c = value.charAt(i);
+
+            // card digits are tracked through masked values too, so a card number after a
+            // key or an email is masked whole rather than cut at the first separator
+            if (cards) {
+                if (c >= '0' && c <= '9') {
+                    if (digits == 0) {
+                        digitStart = i;
+                    }
+                    digits++;
+                    digitEnd = i + 1;
+                } else if (digits > 0 && !((c == ' ' || c == '-') && digitEnd == i)) {
+                    if (isCardNumber(value, digitStart, digitEnd, digits)) {
+                        ranges = addCardRange(ranges, digitStart, digitEnd, covered);
+                        covered = Math.max(covered, digitEnd);
+                    }
+                    digits = 0;
+                }
+            }
+            if (i < covered) {
+                continue;
+            }
+
+            if (emails && c == '@') {
+                int end = emailEnd(value, i, length);
+                int start = emailStart(value, i, covered);
+                if (end > 0 && start >= 0) {
+                    ranges = addRange(ranges, start, end);
+                    covered = end;
+                    state = ROOT;
+                    continue;
+                }
+            }
+
+            state = step(state, c);
+            if (matchLength[state] > 0) {
+                int end = i + 1;
+                while (end < length && !isValueTerminator(value.charAt(end))) {
+                    end++;
+                }
+                if (end > i + 1) {
+                    ranges = addRange(ranges, i + 1, end);
+                    covered = end;
+                    state = ROOT;
+                }
+            }
+        }
+        if (cards && digits > 0 && isCardNumber(value, digitStart, digitEnd, digits)) {
+            ranges = addCardRange(ranges, digitStart, digitEnd, covered);
+        }
+        return ranges;
+    }
+
+    /**
+     * Add a card number, or stretch the last range over it when the number starts
+     * inside that range.
+     */
+    private static int[] addCardRange(int[] ranges, int start, int end, int covered) {
+        if (start >= covered) {
+            return addRange(ranges, start, end);
+        }
+        int last = 2 * ranges[0];
+        ranges[last] = Math.max(ranges[last], end);
+        return ranges;
+    }
+
+    /**
+     * Redact the values of an mdc map. Values under a masked key are replaced
+     * entirely, string values are passed through {@link #redact(String)} and
+     * nested maps are redacted recursively.
+     *
+     * @param mdc the mdc, may be null or unmodifiable
+     * @return the very same instance if nothing changed, otherwise a redacted copy
+     */
+    public Map redactMap(Map mdc) {
+        if (mdc == null) {
+            return null;
+        }
+        Map copy = null;
+        for (Iterator it = mdc.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) it.next();
+            Object value = entry.getValue();
+            Object redacted = value;
+            if (entry.getKey() instanceof String && maskedKeys.contains(entry.getKey())) {
+                redacted = mask;
+            } else if (value instanceof String) {
+                redacted = redact((String) value);
+            } else if (value instanceof Map) {
+                redacted = redactMap((Map) value);
+            }
+            if (redacted != value) {
+                if (copy == null) {
+                    copy = new HashMap(mdc);
+                }
+                copy.put(entry.getKey(), redacted);
+            }
+        }
+        return copy == null ? mdc : copy;
+    }
+
+    /**
+     * Mask the values of masked keys in a nested mdc map, and nothing else: the text
+     * of the values is left to {@link #mask(StringBuilder, int)} while it is encoded.
+     *
+     * @param map the map, may be unmodifiable
+     * @return the very same instance if no masked key was found, otherwise a masked copy
+     */
+    public Map maskKeys(Map map) {
+        Map copy = null;
+        for (Iterator it = map.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) it.next();
+            Object value = entry.getValue();
+            Object masked = value;
+            if (entry.getKey() instanceof String && maskedKeys.contains(entry.getKey())) {
+                masked = mask;
+            } else if (value instanceof Map) {
+                masked = maskKeys((Map) value);
+            }
+            if (masked != value) {
+                if (copy == null) {
+                    copy = new HashMap(map);
+                }
+                copy.put(entry.getKey(), masked);
+            }
+        }
+        return copy == null ? map : copy;
+    }
+
+    private int step(int state, char c) {
+        while (true) {
+            int next = transition(state, c);
+            if (next >= 0) {
+                return next;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = failure[state];
+        }
+    }
+
+    private int transition(int state, char c) {
+        char[] chars = edgeChars[state];
+        int low = 0;
+        int high = chars.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (chars[mid] < c) {
+                low = mid + 1;
+            } else if (chars[mid] > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[state][mid];
+            }
+        }
+        return -1;
+    }
+
+    private void compile(List<String> keys) {
+        List<Map<Character, Integer>> trie = new ArrayList<Map<Character, Integer>>();
+        List<Integer> lengths = new ArrayList<Integer>();
+        trie.add(new HashMap<Character, Integer>());
+        lengths.add(0);
+
+        for (String key : keys) {
+            if (key.length() == 0) {
+                continue;
+            }
+            int node = ROOT;
+            for (int i = 0; i < key.length(); i++) {
+                Integer next = trie.get(node).get(key.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new HashMap<Character, Integer>());
+                    lengths.add(0);
+                    trie.get(node).put(key.charAt(i), next);
+                }
+                node = next;
+            }
+            lengths.set(node, key.length());
+        }
+
+        int size = trie.size();
+        edgeChars = new char[size][];
+        edgeTargets = new int[size][];
+        failure = new int[size];
+        matchLength = new int[size];
+        for (int node = 0; node < size; node++) {
+            Map<Character, Integer> edges = trie.get(node);
+            Character[] chars = edges.keySet().toArray(new Character[edges.size()]);
+            Arrays.sort(chars);
+            edgeChars[node] = new char[chars.length];
+            edgeTargets[node] = new int[chars.length];
+            for (int e = 0; e < chars.length; e++) {
+                edgeChars[node][e] = chars[e];
+                edgeTargets[node][e] = edges.get(chars[e]);
+            }
+            matchLength[node] = lengths.get(node);
+        }
+
+        // breadth-first so that a node's failure target is finished before the node itself
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        for (int e = 0; e < edgeTargets[ROOT].length; e++) {
+            failure[edgeTargets[ROOT][e]] = ROOT;
+            queue[tail++] = edgeTargets[ROOT][e];
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int e = 0; e < edgeChars[node].length; e++) {
+                int child = edgeTargets[node][e];
+                int fallback = failure[node];
+                int target;
+                while ((target = transition(fallback, edgeChars[node][e])) < 0 && fallback != ROOT) {
+                    fallback = failure[fallback];
+                }
+                failure[child] = target < 0 ? ROOT : target;
+                if (matchLength[child] == 0) {
+                    matchLength[child] = matchLength[failure[child]];
+                }
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    private static int[] addRange(int[] ranges, int start, int end) {
+        if (ranges == null) {
+            ranges = new int[9];
+        } else if (2 * ranges[0] + 2 >= ranges.length) {
+            int[] grown = new int[ranges.length * 2 + 1];
+            System.arraycopy(ranges, 0, grown, 0, ranges.length);
+            ranges = grown;
+        }
+        int index = ranges[0]++;
+        ranges[1 + 2 * index] = start;
+        ranges[2 + 2 * index] = end;
+        return ranges;
+    }
+
+    private static boolean isValueTerminator(char c) {
+        return Character.isWhitespace(c) || c == '"' || c == '\'' || c == ',' || c == ';' || c == '&';
+    }
+
+    private static boolean isCardNumber(CharSequence value, int start, int end, int digits) {
+        if (digits < 13 || digits > 19) {
+            return false;
+        }
+        int sum = 0;
+        boolean doubled = false;
+        for (int i = end - 1; i >= start; i--) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                continue;
+            }
+            int d = c - '0';
+            if (doubled) {
+                d *= 2;
+                if (d > 9) {
+                    d -= 9;
+                }
+            }
+            sum += d;
+            doubled = !doubled;
+        }
+        return sum % 10 == 0;
+    }
+
+    private static boolean isEmailLocalChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '.' || c == '_' || c == '%' || c == '+' || c == '-';
+    }
+
+    private static boolean isDomainChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-';
+    }
+
+    private static int emailStart(CharSequence value, int at, int floor) {
+        int start = at;
+        while (start > floor && isEmailLocalChar(value.charAt(start - 1))) {
+            start--;
+        }
+        return start < at ? start : -1;
+    }
+
+    private static int emailEnd(CharSequence value, int at, int length) {
+        int end = at + 1;
+        int lastDot = -1;
+        while (end < length && isDomainChar(value.charAt(end))) {
+            if (value.charAt(end) == '.') {
+                lastDot = end;
+            }
+            end++;
+        }
+        // a trailing dot ends the sentence, not the domain
+        while (end > at + 1 && value.charAt(end - 1) == '.') {
+            end--;
+            lastDot = end - 1;
+            while (lastDot > at && value.charAt(lastDot) != '.') {
+                lastDot--;
+            }
+        }
+        return lastDot > at + 1 && lastDot < end - 1 ? end : -1;
+    }
+}
@@ -0,0 +1,29 @@
+package net.logstash.log4j;
+
+import net.logstash.log4j.appender.EncodedLoggingEvent;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * A {@link JSONEventLayoutV1} for the children of a
+ * {@link net.logstash.log4j.appender.FanOutAppender}.
+ *
+ * Events that were already encoded by the fan-out appender are written as they are,
+ * so the options of this layout only apply to events logged to the child directly.
+ */
+public class SharedJSONEventLayoutV1 extends JSONEventLayoutV1 {
+
+    public SharedJSONEventLayoutV1() {
+        super();
+    }
+
+    public SharedJSONEventLayoutV1(boolean locationInfo) {
+        super(locationInfo);
+    }
+
+    public String format(LoggingEvent loggingEvent) {
+        if (loggingEvent instanceof EncodedLoggingEvent) {
+            return ((EncodedLoggingEvent) loggingEvent).getEncoded();
+        }
+        return super.format(loggingEvent);
+    }
+}
@@ -0,0 +1,149 @@
+package net.logstash.log4j.appender;
+
+import net.logstash.log4j.core.InstancePool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size ring of bytes in a direct (off-heap) buffer, for any number of
+ * producers and a single consumer.
+ *
+ * Producers claim a range with a CAS on the claim sequence, copy their bytes in and
+ * then publish in claim order. The consumer drains everything published so far in
+ * at most two contiguous writes (one if the range does not wrap). Nothing kept in
+ * the ring lives on the heap, however much is queued.
+ *
+ * Sequences are byte offsets that only grow; the position in the buffer is the
+ * sequence modulo the capacity.
+ */
+public class ByteRingBuffer {
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final ByteBuffer consumerView;
+
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+
+    // positioned views for the producers, pooled rather than kept per thread for virtual threads
+    private final InstancePool<ByteBuffer> producerViews = new InstancePool<ByteBuffer>() {
+        protected ByteBuffer create() {
+            return buffer.duplicate();
+        }
+    };
+
+    public ByteRingBuffer(int capacity) {
+        this.capacity = capacity;
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+        this.consumerView = buffer.duplicate();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return how many bytes are waiting to be drained
+     */
+    public long getBacklog() {
+        return published.get() - consumed.get();
+    }
+
+    /**
+     * @return the sequence up to which bytes have been drained
+     */
+    public long getConsumed() {
+        return consumed.get();
+    }
+
+    /**
+     * Copy bytes into the ring.
+     *
+     * @param bytes the bytes to add
+     * @return false if there is not enough free space right now
+     * @throws IllegalArgumentException if the bytes would never fit
+     */
+    public boolean offer(byte[] bytes) {
+        return publish(bytes) >= 0;
+    }
+
+    /**
+     * Copy bytes into the ring, like {@link #offer(byte[])}.
+     *
+     * @param bytes the bytes to add
+     * @return the sequence right after the bytes, so the caller can tell from
+     *         {@link #getConsumed()} when they have been drained, or -1 if there is
+     *         not enough free space right now
+     * @throws IllegalArgumentException if the bytes would never fit
+     */
+    public long publish(byte[] bytes) {
+        int length = bytes.length;
+        if (length > capacity) {
+            throw new IllegalArgumentException("Record of " + length + " bytes does not fit in a ring of " + capacity);
+        }
+        long start;
+        do {
+            start = claimed.get();
+            if (start + length - consumed.get() > capacity) {
+                return -1;
+            }
+        } while (!claimed.compareAndSet(start, start + length));
+
+        int position = (int) (start % capacity);
+        int firstPart = Math.min(length, capacity - position);
+        ByteBuffer view = producerViews.borrow();
+        view.clear();
+        view.position(position);
+        view.put(bytes, 0, firstPart);
+        if (firstPart < length) {
+            view.position(0);
+            view.put(bytes, firstPart, length - firstPart);
+        }
+        producerViews.release(view);
+
+        // publish in claim order, the producers ahead of us are already copying
+        while (published.get() != start) {
+            Thread.yield();
+        }
+        published.set(start + length);
+        return start + length;
+    }
+
+    /**
+     * Write everything published so far to a channel. Only one thread may drain.
+     *
+     * @param channel where to write
+     * @return the number of bytes written
+     * @throws IOException if the channel fails, the bytes not written yet stay in the ring
+     */
+    public long drainTo(WritableByteChannel channel) throws IOException {
+        long from = consumed.get();
+        long to = published.get();
+        if (from == to) {
+            return 0;
+        }
+        int length = (int) (to - from);
+        int position = (int) (from % capacity);
+        int firstPart = Math.min(length, capacity - position);
+
+        write(channel, from, position, firstPart);
+        if (firstPart < length) {
+            write(channel, from + firstPart, 0, length - firstPart);
+        }
+        return length;
+    }
+
+    private void write(WritableByteChannel channel, long sequence, int position, int length) throws IOException {
+        consumerView.limit(position + length);
+        consumerView.position(position);
+        while (consumerView.hasRemaining()) {
+            channel.write(consumerView);
+            // move past whatever made it out, so a failed write is retried from there and nothing is written twice
+            consumed.set(sequence + consumerView.position() - position);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package net.logstash.log4j.appender;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * A {@link LoggingEvent} that carries the text it was already formatted to,
+ * so layouts further down the line can skip encoding it again.
+ */
+public class EncodedLoggingEvent extends LoggingEvent {
+
+    private final String encoded;
+
+    public EncodedLoggingEvent(LoggingEvent event, String encoded) {
+        super(event.getFQNOfLoggerClass(),
+                event.getLogger(),
+                event.getTimeStamp(),
+                (Level) event.getLevel(),
+                event.getMessage(),
+                event.getThreadName(),
+                event.getThrowableInformation(),
+                event.getNDC(),
+                event.locationInformationExists() ? event.getLocationInformation() : null,
+                event.getProperties());
+        this.encoded = encoded;
+    }
+
+    public String getEncoded() {
+        return encoded;
+    }
+}
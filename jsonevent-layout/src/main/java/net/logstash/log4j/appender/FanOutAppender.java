@@ -0,0 +1,252 @@
+package net.logstash.log4j.appender;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.helpers.AppenderAttachableImpl;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Formats each event once with its layout and hands the result to several child appenders.
+ *
+ * Every child gets its own bounded queue and thread, so a slow or failing child never
+ * holds back the others: when a child's queue is full its events are dropped and counted.
+ * Failures of a child, errors included, are reported to this appender's ErrorHandler
+ * and the child keeps getting the events that follow.
+ *
+ * On close, each child is given up to {@link #SHUTDOWN_TIMEOUT_MILLIS} to write what is
+ * still queued for it. Its thread is never interrupted, since that would close any
+ * interruptible channel the child is writing to; whatever it has not taken by then is
+ * discarded and counted as dropped.
+ * Children should use {@link net.logstash.log4j.SharedJSONEventLayoutV1} so they write
+ * the shared encoding instead of formatting the event again.
+ *
+ * <pre>
+ * &lt;appender name="FanOut" class="net.logstash.log4j.appender.FanOutAppender"&gt;
+ *   &lt;param name="BufferSize" value="1024" /&gt;
+ *   &lt;layout class="net.logstash.log4j.JSONEventLayoutV1" /&gt;
+ *   &lt;appender-ref ref="File" /&gt;
+ *   &lt;appender-ref ref="Network" /&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+public class FanOutAppender extends AppenderSkeleton implements AppenderAttachable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+    public static final long SHUTDOWN_TIMEOUT_MILLIS = 1000;
+
+    private final AppenderAttachableImpl children = new AppenderAttachableImpl();
+    private final Map<Appender, ChildWorker> workers = new HashMap<Appender, ChildWorker>();
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    // dropped by children that have since been removed, guarded by workers
+    private long removedDropped = 0;
+
+    public FanOutAppender() {
+    }
+
+    protected void append(LoggingEvent event) {
+        EncodedLoggingEvent encoded = new EncodedLoggingEvent(event, layout.format(event));
+        synchronized (workers) {
+            for (ChildWorker worker : workers.values()) {
+                worker.offer(encoded);
+            }
+        }
+    }
+
+    public boolean requiresLayout() {
+        return true;
+    }
+
+    public void close() {
+        synchronized (workers) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // the workers stay registered so their dropped counts can still be read
+            shutdown(workers.values());
+        }
+        Enumeration all = children.getAllAppenders();
+        while (all != null && all.hasMoreElements()) {
+            ((Appender) all.nextElement()).close();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Set how many events may be queued for each child before events are dropped for it.
+     * Applies to children added afterwards.
+     *
+     * @param bufferSize the queue size per child
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param child a child appender
+     * @return how many events were dropped for the child because its queue was full
+     *         or because it had not written them when it was shut down
+     */
+    public long getDroppedCount(Appender child) {
+        synchronized (workers) {
+            ChildWorker worker = workers.get(child);
+            return worker == null ? 0 : worker.dropped.get();
+        }
+    }
+
+    /**
+     * @return how many events were dropped for all children, including removed ones
+     */
+    public long getDroppedCount() {
+        synchronized (workers) {
+            long dropped = removedDropped;
+            for (ChildWorker worker : workers.values()) {
+                dropped += worker.dropped.get();
+            }
+            return dropped;
+        }
+    }
+
+    public void addAppender(Appender appender) {
+        synchronized (workers) {
+            if (appender == null || workers.containsKey(appender)) {
+                return;
+            }
+            children.addAppender(appender);
+            ChildWorker worker = new ChildWorker(this, appender, bufferSize);
+            workers.put(appender, worker);
+            worker.start();
+        }
+    }
+
+    public Enumeration getAllAppenders() {
+        return children.getAllAppenders();
+    }
+
+    public Appender getAppender(String name) {
+        return children.getAppender(name);
+    }
+
+    public boolean isAttached(Appender appender) {
+        return children.isAttached(appender);
+    }
+
+    public void removeAllAppenders() {
+        synchronized (workers) {
+            shutdown(workers.values());
+            for (ChildWorker worker : workers.values()) {
+                removedDropped += worker.dropped.get();
+            }
+            workers.clear();
+            children.removeAllAppenders();
+        }
+    }
+
+    public void removeAppender(Appender appender) {
+        synchronized (workers) {
+            ChildWorker worker = workers.remove(appender);
+            if (worker != null) {
+                worker.shutdown(System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MILLIS);
+                removedDropped += worker.dropped.get();
+            }
+            children.removeAppender(appender);
+        }
+    }
+
+    public void removeAppender(String name) {
+        removeAppender(children.getAppender(name));
+    }
+
+    /**
+     * Stop all the workers first, so they drain their queues in parallel and share one deadline.
+     */
+    private static void shutdown(Iterable<ChildWorker> stopping) {
+        for (ChildWorker worker : stopping) {
+            worker.running = false;
+        }
+        long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MILLIS;
+        for (ChildWorker worker : stopping) {
+            worker.shutdown(deadline);
+        }
+    }
+
+    private static class ChildWorker extends Thread {
+        private final FanOutAppender parent;
+        private final Appender child;
+        private final BlockingQueue<LoggingEvent> queue;
+        private volatile boolean running = true;
+        private final AtomicLong dropped = new AtomicLong();
+
+        ChildWorker(FanOutAppender parent, Appender child, int bufferSize) {
+            super("FanOutAppender-" + child.getName());
+            setDaemon(true);
+            this.parent = parent;
+            this.child = child;
+            this.queue = new ArrayBlockingQueue<LoggingEvent>(bufferSize);
+        }
+
+        void offer(LoggingEvent event) {
+            if (!queue.offer(event)) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        /**
+         * Let the worker drain its queue until the deadline, then discard and count the rest.
+         */
+        void shutdown(long deadline) {
+            running = false;
+            try {
+                join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            long abandoned = 0;
+            while (queue.poll() != null) {
+                abandoned++;
+            }
+            if (abandoned > 0) {
+                dropped.addAndGet(abandoned);
+                parent.getErrorHandler().error("[FanOutAppender] Child appender " + child.getName() + " did not finish in time, "
+                        + abandoned + " events discarded");
+            }
+        }
+
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                LoggingEvent event;
+                try {
+                    event = running ? queue.poll(100, TimeUnit.MILLISECONDS) : queue.poll();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (event == null) {
+                    continue;
+                }
+                try {
+                    child.doAppend(event);
+                } catch (ThreadDeath e) {
+                    throw e;
+                } catch (Throwable t) {
+                    // an Error from one event (say an OutOfMemoryError while encoding) must not end
+                    // the worker, or the child would silently lose everything after it
+                    parent.getErrorHandler().error("[FanOutAppender] Child appender " + child.getName() + " failed",
+                            t instanceof Exception ? (Exception) t : new RuntimeException(t), ErrorCode.WRITE_FAILURE);
+                }
+            }
+        }
+    }
+}
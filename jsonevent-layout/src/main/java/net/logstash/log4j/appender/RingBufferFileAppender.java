@@ -0,0 +1,233 @@
+package net.logstash.log4j.appender;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes events to a file from a background thread, queueing them as encoded bytes
+ * in an off-heap {@link ByteRingBuffer} rather than as {@link LoggingEvent}s.
+ *
+ * The logging thread formats the event and copies the bytes into the ring, so the
+ * backlog holds no MDC copies, throwables or messages on the heap. A single writer
+ * thread drains whatever has been published with one write per contiguous range.
+ * Logging threads do not share a lock, see {@link UnsynchronizedAppenderSkeleton};
+ * they only wait when Blocking is on and the ring is full.
+ *
+ * On close the writer drains what is left, for up to {@link #CLOSE_TIMEOUT_MILLIS}.
+ * If the file cannot be written by then, the backlog is abandoned rather than
+ * retried and counted in {@link #getAbandonedBytes()}; events that were still being
+ * appended and never reached the file are counted in {@link #getDroppedCount()}.
+ *
+ * <pre>
+ * log4j.appender.Async=net.logstash.log4j.appender.RingBufferFileAppender
+ * log4j.appender.Async.File=api.log
+ * log4j.appender.Async.BufferSize=8388608
+ * log4j.appender.Async.layout=net.logstash.log4j.JSONEventLayoutV1
+ * </pre>
+ */
+public class RingBufferFileAppender extends UnsynchronizedAppenderSkeleton {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024 * 1024;
+
+    public static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private static final long IDLE_PARK_NANOS = 100000L;
+
+    private String fileName;
+    private boolean fileAppend = true;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private boolean blocking = true;
+
+    private ByteRingBuffer ring;
+    private WritableByteChannel channel;
+    private Thread writer;
+    private volatile boolean running;
+    private CountDownLatch writerDone;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+
+    public RingBufferFileAppender() {
+    }
+
+    public void activateOptions() {
+        if (fileName == null) {
+            LogLog.error("File option not set for appender [" + name + "].");
+            return;
+        }
+        if (writer != null) {
+            // activated again: drain to the old file and stop its writer before opening the new one
+            closeWriter();
+        }
+        try {
+            channel = openChannel();
+        } catch (IOException e) {
+            errorHandler.error("Could not open " + fileName, e, ErrorCode.FILE_OPEN_FAILURE);
+            return;
+        }
+        ring = new ByteRingBuffer(bufferSize);
+        running = true;
+        writerDone = new CountDownLatch(1);
+        writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    drainLoop();
+                } finally {
+                    writerDone.countDown();
+                }
+            }
+        }, "RingBufferFileAppender-" + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Open the channel the writer thread drains the ring to.
+     */
+    protected WritableByteChannel openChannel() throws IOException {
+        return new FileOutputStream(fileName, fileAppend).getChannel();
+    }
+
+    protected void append(LoggingEvent event) {
+        if (ring == null) {
+            errorHandler.error("No output file for appender [" + name + "].");
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = format(event).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        if (bytes.length > ring.getCapacity()) {
+            LogLog.warn("Dropping an event of " + bytes.length + " bytes, BufferSize of appender [" + name + "] is " + ring.getCapacity());
+            dropped.incrementAndGet();
+            return;
+        }
+        long end;
+        while ((end = ring.publish(bytes)) < 0) {
+            if (!blocking || !running) {
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        if (!running) {
+            // published while closing, the writer may already have made its last pass
+            awaitWriter();
+            if (ring.getConsumed() < end) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            boolean stopping = !running;
+            long written;
+            try {
+                written = ring.drainTo(channel);
+            } catch (IOException e) {
+                errorHandler.error("Failed to write to " + fileName, e, ErrorCode.WRITE_FAILURE);
+                if (stopping) {
+                    // retrying would hold up close() and JVM shutdown for as long as the file is broken
+                    abandoned.addAndGet(ring.getBacklog());
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            if (written == 0) {
+                if (stopping) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    protected void closeWriter() {
+        running = false;
+        if (writer != null) {
+            try {
+                writer.join(CLOSE_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (writer.isAlive()) {
+                LogLog.warn("Writer of appender [" + name + "] did not finish within " + CLOSE_TIMEOUT_MILLIS + " ms, closing " + fileName);
+            }
+            writer = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LogLog.error("Could not close " + fileName, e);
+            }
+            channel = null;
+        }
+    }
+
+    public boolean requiresLayout() {
+        return true;
+    }
+
+    public String getFile() { return fileName; }
+    public void setFile(String file) { this.fileName = file.trim(); }
+
+    public boolean getAppend() { return fileAppend; }
+    public void setAppend(boolean append) { this.fileAppend = append; }
+
+    public int getBufferSize() { return bufferSize; }
+
+    /**
+     * Set the size of the ring, in bytes. Events bigger than this are dropped.
+     *
+     * @param bufferSize the ring size in bytes
+     */
+    public void setBufferSize(int bufferSize) { this.bufferSize = bufferSize; }
+
+    public boolean getBlocking() { return blocking; }
+
+    /**
+     * Set whether logging threads wait for room when the ring is full (the default),
+     * or drop the event.
+     *
+     * @param blocking true to wait, false to drop
+     */
+    public void setBlocking(boolean blocking) { this.blocking = blocking; }
+
+    private void awaitWriter() {
+        try {
+            writerDone.await(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return how many events were dropped because the ring was full, they were too
+     *         big, or they were appended while closing after the writer had finished
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return how many queued bytes were given up on because the file could not be
+     *         written while closing
+     */
+    public long getAbandonedBytes() {
+        return abandoned.get();
+    }
+}
@@ -0,0 +1,313 @@
+package net.logstash.log4j.appender;
+
+import net.logstash.log4j.JSONEventLayoutV1;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes events to several segment files instead of one, so logging threads do
+ * not queue up behind a single lock.
+ *
+ * With {@code Stripes} set (the default is one per processor) each thread is
+ * assigned a stripe round robin and only ever contends with the threads sharing
+ * its stripe. With {@code Stripes=0} every thread gets a segment of its own, which
+ * suits a fixed pool of threads but leaves one open file per thread that ever
+ * logged, so it is no good with virtual threads. Segments are named after {@code File}: api.log.shard-0, api.log.shard-1...
+ *
+ * <pre>
+ * log4j.appender.Sharded=net.logstash.log4j.appender.ShardedFileAppender
+ * log4j.appender.Sharded.File=api.log
+ * log4j.appender.Sharded.Stripes=8
+ * log4j.appender.Sharded.layout=net.logstash.log4j.JSONEventLayoutV1
+ * </pre>
+ *
+ * Events are not appended under the appender's monitor, see
+ * {@link UnsynchronizedAppenderSkeleton}. {@link JSONEventLayoutV1} formats events
+ * concurrently; any other layout is only called by one thread at a time. Use
+ * {@link net.logstash.log4j.reader.EventMerger} to put the segments back into a
+ * single stream ordered by "@timestamp".
+ *
+ * Striping only helps callers that reach the appender concurrently. log4j 1.2's
+ * {@code Category.callAppenders} holds each category's monitor while it calls the
+ * appenders, so events logged through Loggers that all end up at the root
+ * category's appenders still go through the root monitor one at a time. It pays
+ * off when the appender is attached to separate non-additive loggers, or when
+ * code calls {@link #doAppend(LoggingEvent)} directly, as a bridge from another
+ * logging API would. Threads sharing a segment do not wait for each other either:
+ * an event is queued for whichever thread is writing to the segment, so with
+ * ImmediateFlush it is flushed by the time that thread is done rather than by the
+ * time doAppend returns.
+ *
+ * An event that is still being appended when the appender is closed or activated
+ * again finds its segment closed. It is reported to the error handler and counted
+ * in {@link #getDroppedCount()}.
+ */
+public class ShardedFileAppender extends UnsynchronizedAppenderSkeleton {
+
+    public static final String SEGMENT_SUFFIX = ".shard-";
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    /**
+     * Bytes queued for a segment before threads wait for it to be written.
+     */
+    public static final int MAX_PENDING_BYTES = 1024 * 1024;
+
+    private String fileName;
+    private boolean fileAppend = true;
+    private int stripes = Runtime.getRuntime().availableProcessors();
+    private boolean immediateFlush = true;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private final List<Segment> segments = new CopyOnWriteArrayList<Segment>();
+    private final AtomicInteger nextSegment = new AtomicInteger();
+    private volatile Segment[] stripeSegments;
+    private volatile ThreadLocal<Segment> threadSegments;
+    private final AtomicLong dropped = new AtomicLong();
+
+    public ShardedFileAppender() {
+    }
+
+    public void activateOptions() {
+        if (fileName == null) {
+            LogLog.error("File option not set for appender [" + name + "].");
+            return;
+        }
+        // activated again: release the segments opened last time before their names are reused
+        closeWriter();
+        segments.clear();
+        nextSegment.set(0);
+        if (stripes > 0) {
+            Segment[] opened = new Segment[stripes];
+            for (int i = 0; i < stripes; i++) {
+                opened[i] = openSegment();
+                if (opened[i] == null) {
+                    return;
+                }
+            }
+            stripeSegments = opened;
+        } else {
+            stripeSegments = null;
+        }
+        threadSegments = new ThreadLocal<Segment>() {
+            protected Segment initialValue() {
+                Segment[] striped = stripeSegments;
+                if (striped != null) {
+                    return striped[(nextSegment.getAndIncrement() & Integer.MAX_VALUE) % striped.length];
+                }
+                return openSegment();
+            }
+        };
+    }
+
+    private Segment openSegment() {
+        String segmentName = fileName + SEGMENT_SUFFIX + nextSegment.getAndIncrement();
+        try {
+            Segment segment = new Segment(segmentName, new BufferedOutputStream(new FileOutputStream(segmentName, fileAppend), bufferSize));
+            segments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            errorHandler.error("Could not open " + segmentName, e, ErrorCode.FILE_OPEN_FAILURE);
+            return null;
+        }
+    }
+
+    protected void append(LoggingEvent event) {
+        ThreadLocal<Segment> current = threadSegments;
+        if (current == null) {
+            errorHandler.error("No output file for appender [" + name + "].");
+            return;
+        }
+        Segment segment = current.get();
+        if (segment == null) {
+            // the segment could not be opened, try again on the next event
+            current.remove();
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = format(event).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        segment.write(bytes);
+    }
+
+    protected void closeWriter() {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        stripeSegments = null;
+        threadSegments = null;
+    }
+
+    public boolean requiresLayout() {
+        return true;
+    }
+
+    /**
+     * @return the segments opened by this appender, still listed after it is closed
+     */
+    public List<File> getSegmentFiles() {
+        List<File> files = new ArrayList<File>();
+        for (Segment segment : segments) {
+            files.add(new File(segment.fileName));
+        }
+        return files;
+    }
+
+    /**
+     * @return how many events were dropped because their segment had been closed
+     *         by the time they were written
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Find the segments written for a File setting, in segment order.
+     *
+     * @param file the File option of the appender
+     * @return the segment files found next to it
+     */
+    public static List<File> findSegments(String file) {
+        File base = new File(file).getAbsoluteFile();
+        final String prefix = base.getName() + SEGMENT_SUFFIX;
+        File[] found = base.getParentFile().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+");
+            }
+        });
+        if (found == null) {
+            return new ArrayList<File>();
+        }
+        Arrays.sort(found, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long left = Long.parseLong(a.getName().substring(prefix.length()));
+                long right = Long.parseLong(b.getName().substring(prefix.length()));
+                return left < right ? -1 : left == right ? 0 : 1;
+            }
+        });
+        return new ArrayList<File>(Arrays.asList(found));
+    }
+
+    public String getFile() { return fileName; }
+    public void setFile(String file) { this.fileName = file.trim(); }
+
+    public boolean getAppend() { return fileAppend; }
+    public void setAppend(boolean append) { this.fileAppend = append; }
+
+    public int getStripes() { return stripes; }
+
+    /**
+     * Set how many segments threads are spread over, or 0 for one segment per thread.
+     *
+     * @param stripes the number of segments
+     */
+    public void setStripes(int stripes) { this.stripes = stripes; }
+
+    public boolean getImmediateFlush() { return immediateFlush; }
+
+    /**
+     * Set whether every event is flushed to its segment as soon as it is written
+     * (the default), or only when the segment's buffer fills up and on close.
+     *
+     * @param immediateFlush true to flush each event
+     */
+    public void setImmediateFlush(boolean immediateFlush) { this.immediateFlush = immediateFlush; }
+
+    public int getBufferSize() { return bufferSize; }
+    public void setBufferSize(int bufferSize) { this.bufferSize = bufferSize; }
+
+    /**
+     * One segment file; its lock is only shared by the threads writing to it.
+     *
+     * A thread that finds the lock taken does not wait for it: it queues its event
+     * and returns, and whoever holds the lock writes the queued events before
+     * letting go. Appenders attached to several non-additive loggers are called with
+     * a category's monitor held, and a virtual thread parking in there would pin its
+     * carrier. Only when more than {@link #MAX_PENDING_BYTES} are queued, because
+     * the file cannot keep up, do threads wait for the lock again.
+     */
+    private final class Segment {
+        private final String fileName;
+        private final OutputStream out;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<byte[]>();
+        private final AtomicInteger pendingBytes = new AtomicInteger();
+        private boolean closed;
+
+        Segment(String fileName, OutputStream out) {
+            this.fileName = fileName;
+            this.out = out;
+        }
+
+        void write(byte[] bytes) {
+            pending.add(bytes);
+            if (pendingBytes.addAndGet(bytes.length) > MAX_PENDING_BYTES) {
+                lock.lock();
+                writePendingAndUnlock();
+            }
+            // a holder that failed our tryLock checks the queue again after unlocking
+            while (!pending.isEmpty() && lock.tryLock()) {
+                writePendingAndUnlock();
+            }
+        }
+
+        private void writePendingAndUnlock() {
+            try {
+                boolean written = false;
+                byte[] bytes;
+                while ((bytes = pending.poll()) != null) {
+                    pendingBytes.addAndGet(-bytes.length);
+                    if (closed) {
+                        dropped.incrementAndGet();
+                        errorHandler.error("Dropped an event for " + fileName + ", the segment was closed while it was appended",
+                                null, ErrorCode.WRITE_FAILURE);
+                        continue;
+                    }
+                    out.write(bytes);
+                    written = true;
+                }
+                if (written && immediateFlush) {
+                    out.flush();
+                }
+            } catch (IOException e) {
+                errorHandler.error("Failed to write to " + fileName, e, ErrorCode.WRITE_FAILURE);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            // events queued before the close are still written
+            writePendingAndUnlock();
+            lock.lock();
+            try {
+                closed = true;
+                out.close();
+            } catch (IOException e) {
+                LogLog.error("Could not close " + fileName, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package net.logstash.log4j.appender;
+
+import net.logstash.log4j.JSONEventLayoutV1;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Layout;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Base for appenders that do not hold a monitor while appending.
+ *
+ * {@link AppenderSkeleton#doAppend(LoggingEvent)} is synchronized, so every thread
+ * logging to an appender queues on one monitor, and a virtual thread that blocks
+ * in there pins its carrier thread. Here the closed, threshold and filter checks
+ * run without any lock and {@link #append(LoggingEvent)} is called concurrently;
+ * subclasses hand the event to a writer guarded by a {@link ReentrantLock} or to
+ * a queue. Events are formatted through {@link #format(LoggingEvent)}, which only
+ * lets {@link JSONEventLayoutV1} itself, not its subclasses, format events
+ * concurrently. Its {@link net.logstash.log4j.fields.FieldProvider}s are then
+ * called concurrently too.
+ *
+ * Note that log4j 1.2's Category holds the logger's monitor while it calls its
+ * appenders, so for events logged through a Logger the append path should not
+ * wait for anything: park there and the carrier is pinned after all.
+ */
+public abstract class UnsynchronizedAppenderSkeleton extends AppenderSkeleton {
+
+    private final ReentrantLock layoutLock = new ReentrantLock();
+    private final ReentrantLock closeLock = new ReentrantLock();
+    private volatile boolean concurrentLayout;
+    private volatile boolean stopped;
+
+    public void setLayout(Layout layout) {
+        super.setLayout(layout);
+        concurrentLayout = isConcurrentLayout(layout);
+        if (layout != null && !concurrentLayout) {
+            LogLog.debug("Layout " + layout.getClass().getName() + " of appender [" + name + "] will format one event at a time.");
+        }
+    }
+
+    /**
+     * Whether a layout may format events from several threads at once. Only
+     * {@link JSONEventLayoutV1} itself is trusted to: a subclass may add state of
+     * its own, so it is serialized like any other layout.
+     *
+     * @param layout the layout, may be null
+     * @return true if the layout does not need to be called one thread at a time
+     */
+    public static boolean isConcurrentLayout(Layout layout) {
+        return layout != null && layout.getClass() == JSONEventLayoutV1.class;
+    }
+
+    /**
+     * Same checks as {@link AppenderSkeleton#doAppend(LoggingEvent)}, without holding
+     * the appender's monitor.
+     */
+    public void doAppend(LoggingEvent event) {
+        if (stopped) {
+            LogLog.error("Attempted to append to closed appender named [" + name + "].");
+            return;
+        }
+        if (!isAsSevereAsThreshold(event.getLevel())) {
+            return;
+        }
+        Filter f = headFilter;
+        FILTER_LOOP:
+        while (f != null) {
+            switch (f.decide(event)) {
+                case Filter.DENY:
+                    return;
+                case Filter.ACCEPT:
+                    break FILTER_LOOP;
+                case Filter.NEUTRAL:
+                    f = f.getNext();
+            }
+        }
+        append(event);
+    }
+
+    /**
+     * Called by concurrent threads for every event that passed the checks.
+     */
+    protected abstract void append(LoggingEvent event);
+
+    /**
+     * Format an event with the appender's layout, safe to call concurrently.
+     */
+    protected String format(LoggingEvent event) {
+        if (concurrentLayout) {
+            return layout.format(event);
+        }
+        layoutLock.lock();
+        try {
+            return layout.format(event);
+        } finally {
+            layoutLock.unlock();
+        }
+    }
+
+    public void close() {
+        closeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            stopped = true;
+            closeWriter();
+        } finally {
+            closeLock.unlock();
+        }
+    }
+
+    /**
+     * Release the writer; called once, after new events stopped being accepted.
+     * Events already inside {@link #append(LoggingEvent)} may still arrive.
+     */
+    protected abstract void closeWriter();
+}
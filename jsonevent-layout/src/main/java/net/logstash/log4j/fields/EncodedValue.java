@@ -0,0 +1,27 @@
+package net.logstash.log4j.fields;
+
+import net.logstash.log4j.core.JSONEventEncoder;
+
+/**
+ * A value that has already been encoded to JSON, so putting it in an event
+ * only copies the cached text.
+ */
+public class EncodedValue {
+
+    private final String json;
+
+    /**
+     * @param value anything {@link net.logstash.log4j.core.FieldWriter#field} can write
+     */
+    public EncodedValue(Object value) {
+        this.json = JSONEventEncoder.encodeValue(value);
+    }
+
+    public String toJSONString() {
+        return json;
+    }
+
+    public String toString() {
+        return json;
+    }
+}
@@ -0,0 +1,50 @@
+package net.logstash.log4j.fields;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Adds a field to every event encoded by {@link net.logstash.log4j.JSONEventLayoutV1}.
+ *
+ * Implementations need a public no-arg constructor to be configured through the
+ * layout's "FieldProviders" option.
+ *
+ * Implementations must be thread-safe. The layout formats events from several
+ * threads at once, both under log4j's own appenders (one thread per logger
+ * monitor) and under {@link net.logstash.log4j.appender.UnsynchronizedAppenderSkeleton}
+ * appenders, so {@link #getValue(LoggingEvent)} of an {@link Scope#EVENT} provider
+ * is called concurrently and must not block, or it pins virtual threads' carriers.
+ * An {@link Scope#INTERVAL} provider is only called by the refresh thread.
+ */
+public interface FieldProvider {
+
+    enum Scope {
+        /** computed once when the layout is activated */
+        CONSTANT,
+        /** recomputed in the background every {@link FieldProvider#getIntervalMillis()} */
+        INTERVAL,
+        /** computed for every event */
+        EVENT
+    }
+
+    /**
+     * @return the name of the field in the event, not one the layout writes itself
+     *         such as "message" or "level"
+     */
+    String getFieldName();
+
+    Scope getScope();
+
+    /**
+     * @return how often an {@link Scope#INTERVAL} field is refreshed, ignored for other scopes
+     */
+    long getIntervalMillis();
+
+    /**
+     * Compute the value of the field: a string, number, boolean, map, collection
+     * or array, encoded as such; anything else is written as its string value.
+     *
+     * @param loggingEvent the event being encoded, null unless the scope is {@link Scope#EVENT}
+     * @return the value, or null to leave the field out
+     */
+    Object getValue(LoggingEvent loggingEvent);
+}
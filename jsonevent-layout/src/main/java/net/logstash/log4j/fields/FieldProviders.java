@@ -0,0 +1,229 @@
+package net.logstash.log4j.fields;
+
+import net.logstash.log4j.core.FieldWriter;
+import net.logstash.log4j.core.JSONEventEncoder;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a set of {@link FieldProvider}s for a layout.
+ *
+ * Constant and interval fields are encoded up front and only copied into events.
+ * Interval fields are refreshed by a single daemon thread shared by all layouts,
+ * so the logging thread never computes them.
+ *
+ * A log4j 1.2 layout is never closed, so a layout that is replaced on
+ * reconfiguration cannot be relied on to call {@link #stop()}. The refresh tasks
+ * only hold their fields weakly and cancel themselves once the fields are
+ * collected along with the discarded layout.
+ */
+public class FieldProviders {
+
+    private static ScheduledExecutorService scheduler;
+
+    private final List<String> cachedNames = new ArrayList<String>();
+    private final List<CachedField> cachedFields = new ArrayList<CachedField>();
+    private final List<EventField> eventFields = new ArrayList<EventField>();
+    private final List<CachedField> intervalFields = new ArrayList<CachedField>();
+    private final List<ScheduledFuture> refreshes = new ArrayList<ScheduledFuture>();
+
+    /**
+     * @param providers the providers; when several provide the same field the last one wins
+     */
+    public FieldProviders(List<FieldProvider> providers) {
+        try {
+            for (FieldProvider provider : unique(providers).values()) {
+                FieldProvider.Scope scope = provider.getScope();
+                if (scope == FieldProvider.Scope.INTERVAL && provider.getIntervalMillis() <= 0) {
+                    LogLog.warn("[FieldProviders] Invalid interval " + provider.getIntervalMillis() + " ms for field '"
+                            + provider.getFieldName() + "', computing it once");
+                    scope = FieldProvider.Scope.CONSTANT;
+                }
+                switch (scope) {
+                    case EVENT:
+                        eventFields.add(new EventField(provider));
+                        break;
+                    case INTERVAL:
+                        CachedField interval = new CachedField(provider);
+                        cachedNames.add(provider.getFieldName());
+                        cachedFields.add(interval);
+                        intervalFields.add(interval);
+                        Refresh refresh = new Refresh(interval);
+                        refresh.future = getScheduler().scheduleAtFixedRate(refresh,
+                                provider.getIntervalMillis(), provider.getIntervalMillis(), TimeUnit.MILLISECONDS);
+                        refreshes.add(refresh.future);
+                        break;
+                    default:
+                        cachedNames.add(provider.getFieldName());
+                        cachedFields.add(new CachedField(provider));
+                        break;
+                }
+            }
+        } catch (RuntimeException e) {
+            // do not leave the refreshes scheduled so far running for a layout that failed to activate
+            stop();
+            throw e;
+        }
+    }
+
+    /**
+     * Drop providers of the layout's own fields, and all but the last provider of a field.
+     */
+    private static Map<String, FieldProvider> unique(List<FieldProvider> providers) {
+        Map<String, FieldProvider> byName = new LinkedHashMap<String, FieldProvider>();
+        for (FieldProvider provider : providers) {
+            String name = provider.getFieldName();
+            if (JSONEventEncoder.isReservedFieldName(name)) {
+                LogLog.warn("[FieldProviders] Ignoring provider " + provider.getClass().getName() + ", the layout writes field '"
+                        + name + "' itself");
+                continue;
+            }
+            FieldProvider replaced = byName.put(name, provider);
+            if (replaced != null) {
+                LogLog.warn("[FieldProviders] Field '" + name + "' is provided by both " + replaced.getClass().getName()
+                        + " and " + provider.getClass().getName() + ", using the latter");
+            }
+        }
+        return byName;
+    }
+
+    /**
+     * @return whether one of the providers writes a field by this name
+     */
+    public boolean provides(String name) {
+        if (cachedNames.contains(name)) {
+            return true;
+        }
+        for (EventField field : eventFields) {
+            if (field.provider.getFieldName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add every provided field to an event.
+     *
+     * @param writer       the event being encoded
+     * @param loggingEvent the event being encoded
+     */
+    public void addFields(FieldWriter writer, LoggingEvent loggingEvent) {
+        for (int i = 0; i < cachedFields.size(); i++) {
+            EncodedValue value = cachedFields.get(i).value;
+            if (value != null) {
+                writer.rawField(cachedNames.get(i), value.toJSONString());
+            }
+        }
+        for (int i = 0; i < eventFields.size(); i++) {
+            eventFields.get(i).addTo(writer, loggingEvent);
+        }
+    }
+
+    /**
+     * Recompute the interval fields now, on the calling thread.
+     */
+    void refresh() {
+        for (CachedField interval : intervalFields) {
+            interval.refresh();
+        }
+    }
+
+    /**
+     * Stop refreshing the interval fields of these providers.
+     */
+    public void stop() {
+        for (ScheduledFuture refresh : refreshes) {
+            refresh.cancel(false);
+        }
+        refreshes.clear();
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "jsonevent-layout-field-providers");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    private static class EventField {
+        private final FieldProvider provider;
+        private volatile boolean failed;
+
+        EventField(FieldProvider provider) {
+            this.provider = provider;
+        }
+
+        void addTo(FieldWriter writer, LoggingEvent loggingEvent) {
+            Object value;
+            try {
+                value = provider.getValue(loggingEvent);
+            } catch (RuntimeException e) {
+                // the field is left out of this event; only the first failure is reported
+                if (!failed) {
+                    failed = true;
+                    LogLog.warn("[FieldProviders] Could not compute field '" + provider.getFieldName() + "'", e);
+                }
+                return;
+            }
+            writer.field(provider.getFieldName(), value);
+        }
+    }
+
+    /**
+     * Refreshes one interval field for as long as its layout is around.
+     */
+    private static class Refresh implements Runnable {
+        private final WeakReference<CachedField> field;
+        volatile ScheduledFuture future;
+
+        Refresh(CachedField field) {
+            this.field = new WeakReference<CachedField>(field);
+        }
+
+        public void run() {
+            CachedField interval = field.get();
+            if (interval != null) {
+                interval.refresh();
+            } else if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private static class CachedField {
+        private final FieldProvider provider;
+        private volatile EncodedValue value;
+
+        CachedField(FieldProvider provider) {
+            this.provider = provider;
+            refresh();
+        }
+
+        void refresh() {
+            try {
+                Object raw = provider.getValue(null);
+                value = raw == null ? null : new EncodedValue(raw);
+            } catch (RuntimeException e) {
+                LogLog.warn("[FieldProviders] Could not compute field '" + provider.getFieldName() + "'", e);
+            }
+        }
+    }
+}
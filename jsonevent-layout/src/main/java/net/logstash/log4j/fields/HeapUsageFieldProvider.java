@@ -0,0 +1,27 @@
+package net.logstash.log4j.fields;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Adds the used heap, in bytes, as "heap_used". Refreshed every second.
+ */
+public class HeapUsageFieldProvider implements FieldProvider {
+
+    public String getFieldName() {
+        return "heap_used";
+    }
+
+    public Scope getScope() {
+        return Scope.INTERVAL;
+    }
+
+    public long getIntervalMillis() {
+        return 1000;
+    }
+
+    public Object getValue(LoggingEvent loggingEvent) {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,37 @@
+package net.logstash.log4j.fields;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Adds the process id as "pid".
+ */
+public class PidFieldProvider implements FieldProvider {
+
+    public String getFieldName() {
+        return "pid";
+    }
+
+    public Scope getScope() {
+        return Scope.CONSTANT;
+    }
+
+    public long getIntervalMillis() {
+        return 0;
+    }
+
+    public Object getValue(LoggingEvent loggingEvent) {
+        // the runtime name is "pid@hostname" on every JVM we care about
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int at = name.indexOf('@');
+        if (at <= 0) {
+            return null;
+        }
+        try {
+            return Long.valueOf(name.substring(0, at));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
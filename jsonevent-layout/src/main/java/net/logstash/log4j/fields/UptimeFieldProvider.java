@@ -0,0 +1,27 @@
+package net.logstash.log4j.fields;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Adds the JVM uptime, in whole minutes, as "uptime_minutes". Refreshed every minute.
+ */
+public class UptimeFieldProvider implements FieldProvider {
+
+    public String getFieldName() {
+        return "uptime_minutes";
+    }
+
+    public Scope getScope() {
+        return Scope.INTERVAL;
+    }
+
+    public long getIntervalMillis() {
+        return 60 * 1000;
+    }
+
+    public Object getValue(LoggingEvent loggingEvent) {
+        return ManagementFactory.getRuntimeMXBean().getUptime() / (60 * 1000);
+    }
+}
@@ -0,0 +1,559 @@
+package net.logstash.log4j.reader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Walks the events of a memory-mapped NDJSON file one line at a time.
+ *
+ * Nothing is parsed up front. The first field lookup on a line records where its
+ * top-level members start and end; values are only decoded when asked for, so
+ * filtering on "@timestamp" and "level" never builds the rest of the event.
+ * Lookups by {@link Field} and comparisons with {@link #valueEquals(Field, String)}
+ * do not allocate.
+ *
+ * A cursor is not thread-safe, and the values it returns are only valid until the
+ * next call to {@link #next()}.
+ */
+public class EventCursor {
+
+    private static final long ABSENT = -1L;
+
+    private final FileChannel channel;
+    private final long[] boundaries;
+    private final int endChunk;
+    private int chunk;
+
+    private MappedByteBuffer buffer;
+    private int position;
+    private int lineStart;
+    private int lineEnd;
+
+    private boolean indexed;
+    private int members;
+    private int[] keyStarts = new int[32];
+    private int[] keyEnds = new int[32];
+    private int[] valueStarts = new int[32];
+    private int[] valueEnds = new int[32];
+
+    // set by readMember
+    private int scanKeyStart;
+    private int scanKeyEnd;
+    private int scanValueStart;
+    private int scanValueEnd;
+
+    private char[] chars = new char[256];
+    private byte[] lineBytes = new byte[1024];
+
+    EventCursor(FileChannel channel, long[] boundaries, int firstChunk, int endChunk) {
+        this.channel = channel;
+        this.boundaries = boundaries;
+        this.chunk = firstChunk;
+        this.endChunk = endChunk;
+    }
+
+    /**
+     * Move to the next non-blank line.
+     *
+     * @return false once there are no more lines
+     * @throws IOException if the file cannot be mapped
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (buffer == null || position >= buffer.limit()) {
+                if (chunk >= endChunk) {
+                    return false;
+                }
+                long start = boundaries[chunk];
+                long end = boundaries[chunk + 1];
+                chunk++;
+                if (end == start) {
+                    continue;
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                position = 0;
+            }
+            int start = position;
+            int limit = buffer.limit();
+            int end = start;
+            while (end < limit && buffer.get(end) != '\n') {
+                end++;
+            }
+            position = end + 1;
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            if (skipWhitespace(start, end) == end) {
+                continue;
+            }
+            lineStart = start;
+            lineEnd = end;
+            indexed = false;
+            return true;
+        }
+    }
+
+    /**
+     * @return whether the current event has the field
+     */
+    public boolean has(Field field) {
+        return locate(field) != ABSENT;
+    }
+
+    /**
+     * @return the field as a string, the raw JSON text for anything but strings,
+     * or null if the field is missing or null
+     */
+    public String getString(Field field) {
+        long range = locate(field);
+        if (range == ABSENT) {
+            return null;
+        }
+        int start = start(range);
+        int end = end(range);
+        if (buffer.get(start) == '"') {
+            return decodeString(start + 1, end - 1);
+        }
+        if (isNull(start, end)) {
+            return null;
+        }
+        return decodeRaw(start, end);
+    }
+
+    /**
+     * @return the raw JSON text of the field, e.g. the whole "mdc" object, or null if missing
+     */
+    public String getRaw(Field field) {
+        long range = locate(field);
+        return range == ABSENT ? null : decodeRaw(start(range), end(range));
+    }
+
+    /**
+     * Read an integer field, quoted or not.
+     *
+     * @return the value, or the default if the field is missing or not an integer
+     */
+    public long getLong(Field field, long defaultValue) {
+        long range = locate(field);
+        if (range == ABSENT) {
+            return defaultValue;
+        }
+        int start = start(range);
+        int end = end(range);
+        if (buffer.get(start) == '"') {
+            start++;
+            end--;
+        }
+        boolean negative = start < end && buffer.get(start) == '-';
+        if (negative) {
+            start++;
+        }
+        if (start >= end) {
+            return defaultValue;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                return defaultValue;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Compare a string field with a value without decoding it.
+     *
+     * @return true if the field is a string equal to the value
+     */
+    public boolean valueEquals(Field field, String value) {
+        long range = locate(field);
+        if (range == ABSENT || buffer.get(start(range)) != '"') {
+            return false;
+        }
+        int start = start(range) + 1;
+        int end = end(range) - 1;
+        if (end - start != value.length()) {
+            // escapes and multi-byte chars change the length, let decoding sort those out
+            return hasEscapesOrMultiByte(start, end) && value.equals(decodeString(start, end));
+        }
+        for (int i = 0; i < value.length(); i++) {
+            byte b = buffer.get(start + i);
+            if (b == '\\' || b < 0) {
+                return value.equals(decodeString(start, end));
+            }
+            if (b != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse "@timestamp" as written by the layouts (yyyy-MM-dd'T'HH:mm:ss.SSS'Z').
+     *
+     * @return milliseconds since the epoch, or Long.MIN_VALUE if missing or in another format
+     */
+    public long getTimestamp() {
+        long range = locate(Field.TIMESTAMP);
+        if (range == ABSENT) {
+            return Long.MIN_VALUE;
+        }
+        int p = start(range) + 1;
+        int length = end(range) - 1 - p;
+        if ((length != 24 && length != 20) || buffer.get(p + 4) != '-' || buffer.get(p + 10) != 'T'
+                || buffer.get(p + length - 1) != 'Z') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(p, 4);
+        int month = digits(p + 5, 2);
+        int day = digits(p + 8, 2);
+        int hour = digits(p + 11, 2);
+        int minute = digits(p + 14, 2);
+        int second = digits(p + 17, 2);
+        int millis = length == 24 ? digits(p + 20, 3) : 0;
+        if ((year | month | day | hour | minute | second | millis) < 0) {
+            return Long.MIN_VALUE;
+        }
+        return ((daysFromCivil(year, month, day) * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+    }
+
+    /**
+     * @return the whole current line
+     */
+    public String getLine() {
+        return decodeRaw(lineStart, lineEnd);
+    }
+
+    /**
+     * @return a copy of the current line with its line feed, which stays valid after {@link #next()}
+     */
+    public byte[] copyLine() {
+        int length = lineEnd - lineStart;
+        byte[] line = new byte[length + 1];
+        for (int i = 0; i < length; i++) {
+            line[i] = buffer.get(lineStart + i);
+        }
+        line[length] = '\n';
+        return line;
+    }
+
+    /**
+     * Copy the current line, followed by a newline, to a stream.
+     */
+    public void writeLine(OutputStream out) throws IOException {
+        int length = lineEnd - lineStart;
+        if (lineBytes.length < length + 1) {
+            lineBytes = new byte[Math.max(length + 1, lineBytes.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            lineBytes[i] = buffer.get(lineStart + i);
+        }
+        lineBytes[length] = '\n';
+        out.write(lineBytes, 0, length + 1);
+    }
+
+    private long locate(Field field) {
+        if (!indexed) {
+            index();
+        }
+        byte[][] path = field.path;
+        long range = ABSENT;
+        for (int m = 0; m < members; m++) {
+            if (keyEquals(keyStarts[m], keyEnds[m], path[0])) {
+                range = pack(valueStarts[m], valueEnds[m]);
+                break;
+            }
+        }
+        for (int p = 1; p < path.length && range != ABSENT; p++) {
+            range = findMember(start(range), end(range), path[p]);
+        }
+        return range;
+    }
+
+    private void index() {
+        indexed = true;
+        members = 0;
+        int pos = skipWhitespace(lineStart, lineEnd);
+        if (pos >= lineEnd || buffer.get(pos) != '{') {
+            return;
+        }
+        pos++;
+        int next;
+        while ((next = readMember(pos, lineEnd)) >= 0) {
+            if (members == keyStarts.length) {
+                keyStarts = grow(keyStarts);
+                keyEnds = grow(keyEnds);
+                valueStarts = grow(valueStarts);
+                valueEnds = grow(valueEnds);
+            }
+            keyStarts[members] = scanKeyStart;
+            keyEnds[members] = scanKeyEnd;
+            valueStarts[members] = scanValueStart;
+            valueEnds[members] = scanValueEnd;
+            members++;
+            pos = next;
+        }
+    }
+
+    private long findMember(int objectStart, int objectEnd, byte[] key) {
+        if (buffer.get(objectStart) != '{') {
+            return ABSENT;
+        }
+        int pos = objectStart + 1;
+        int next;
+        while ((next = readMember(pos, objectEnd)) >= 0) {
+            if (keyEquals(scanKeyStart, scanKeyEnd, key)) {
+                return pack(scanValueStart, scanValueEnd);
+            }
+            pos = next;
+        }
+        return ABSENT;
+    }
+
+    /**
+     * Read one "key": value member starting at pos.
+     *
+     * @return the position of the next member, or -1 at the end of the object or on bad input
+     */
+    private int readMember(int pos, int end) {
+        pos = skipWhitespace(pos, end);
+        if (pos >= end || buffer.get(pos) != '"') {
+            return -1;
+        }
+        scanKeyStart = pos + 1;
+        pos = skipString(pos, end);
+        if (pos < 0) {
+            return -1;
+        }
+        scanKeyEnd = pos - 1;
+        pos = skipWhitespace(pos, end);
+        if (pos >= end || buffer.get(pos) != ':') {
+            return -1;
+        }
+        pos = skipWhitespace(pos + 1, end);
+        scanValueStart = pos;
+        pos = skipValue(pos, end);
+        if (pos < 0) {
+            return -1;
+        }
+        scanValueEnd = pos;
+        pos = skipWhitespace(pos, end);
+        if (pos < end && buffer.get(pos) == ',') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @return the position just after the closing quote, or -1
+     */
+    private int skipString(int pos, int end) {
+        for (int i = pos + 1; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '\\') {
+                i++;
+            } else if (b == '"') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private int skipValue(int pos, int end) {
+        if (pos >= end) {
+            return -1;
+        }
+        byte first = buffer.get(pos);
+        if (first == '"') {
+            return skipString(pos, end);
+        }
+        if (first == '{' || first == '[') {
+            int depth = 0;
+            for (int i = pos; i < end; i++) {
+                byte b = buffer.get(i);
+                if (b == '"') {
+                    i = skipString(i, end);
+                    if (i < 0) {
+                        return -1;
+                    }
+                    i--;
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        return i + 1;
+                    }
+                }
+            }
+            return -1;
+        }
+        int i = pos;
+        while (i < end) {
+            byte b = buffer.get(i);
+            if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+                break;
+            }
+            i++;
+        }
+        return i > pos ? i : -1;
+    }
+
+    private int skipWhitespace(int pos, int end) {
+        while (pos < end) {
+            byte b = buffer.get(pos);
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    private boolean keyEquals(int start, int end, byte[] key) {
+        if (end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isNull(int start, int end) {
+        return end - start == 4 && buffer.get(start) == 'n' && buffer.get(start + 1) == 'u'
+                && buffer.get(start + 2) == 'l' && buffer.get(start + 3) == 'l';
+    }
+
+    private boolean hasEscapesOrMultiByte(int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '\\' || b < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int digits(int pos, int count) {
+        int value = 0;
+        for (int i = pos; i < pos + count; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Decode the inside of a JSON string (UTF-8 with JSON escapes).
+     */
+    private String decodeString(int start, int end) {
+        return decode(start, end, true);
+    }
+
+    private String decode(int start, int end, boolean unescape) {
+        if (chars.length < end - start) {
+            chars = new char[Math.max(end - start, chars.length * 2)];
+        }
+        int n = 0;
+        int i = start;
+        while (i < end) {
+            int b = buffer.get(i) & 0xff;
+            if (unescape && b == '\\' && i + 1 < end) {
+                byte escaped = buffer.get(i + 1);
+                i += 2;
+                switch (escaped) {
+                    case 'n': chars[n++] = '\n'; break;
+                    case 't': chars[n++] = '\t'; break;
+                    case 'r': chars[n++] = '\r'; break;
+                    case 'b': chars[n++] = '\b'; break;
+                    case 'f': chars[n++] = '\f'; break;
+                    case 'u':
+                        if (i + 4 <= end) {
+                            chars[n++] = (char) ((hex(i) << 12) | (hex(i + 1) << 8) | (hex(i + 2) << 4) | hex(i + 3));
+                            i += 4;
+                        }
+                        break;
+                    default: chars[n++] = (char) escaped; break;
+                }
+            } else if (b < 0x80) {
+                chars[n++] = (char) b;
+                i++;
+            } else if ((b >> 5) == 0x6 && i + 1 < end) {
+                chars[n++] = (char) (((b & 0x1f) << 6) | (buffer.get(i + 1) & 0x3f));
+                i += 2;
+            } else if ((b >> 4) == 0xe && i + 2 < end) {
+                chars[n++] = (char) (((b & 0x0f) << 12) | ((buffer.get(i + 1) & 0x3f) << 6) | (buffer.get(i + 2) & 0x3f));
+                i += 3;
+            } else if ((b >> 3) == 0x1e && i + 3 < end) {
+                int codePoint = ((b & 0x07) << 18) | ((buffer.get(i + 1) & 0x3f) << 12)
+                        | ((buffer.get(i + 2) & 0x3f) << 6) | (buffer.get(i + 3) & 0x3f);
+                codePoint -= 0x10000;
+                chars[n++] = (char) (0xd800 + (codePoint >> 10));
+                chars[n++] = (char) (0xdc00 + (codePoint & 0x3ff));
+                i += 4;
+            } else {
+                chars[n++] = '\ufffd';
+                i++;
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
+    private String decodeRaw(int start, int end) {
+        return decode(start, end, false);
+    }
+
+    private int hex(int pos) {
+        int b = buffer.get(pos);
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return 0;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static long pack(int start, int end) {
+        return ((long) start << 32) | (end & 0xffffffffL);
+    }
+
+    private static int start(long range) {
+        return (int) (range >>> 32);
+    }
+
+    private static int end(long range) {
+        return (int) range;
+    }
+}
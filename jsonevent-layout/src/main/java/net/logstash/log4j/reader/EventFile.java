@@ -0,0 +1,182 @@
+package net.logstash.log4j.reader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * An NDJSON file written by {@link net.logstash.log4j.JSONEventLayoutV1} or
+ * {@link net.logstash.log4j.JSONEventLayoutV0}, read through memory-mapped chunks.
+ *
+ * The file is cut into chunks of roughly {@link #DEFAULT_CHUNK_SIZE} bytes, each
+ * ending on a newline, so chunks can be read independently: sequentially through
+ * {@link #cursor()}, or in parallel across a fork-join pool with
+ * {@link #reduce(EventReduction, ForkJoinPool)}.
+ *
+ * <pre>
+ * EventFile file = new EventFile(new File("api.log"));
+ * EventCursor event = file.cursor();
+ * while (event.next()) {
+ *     if (event.valueEquals(Field.LEVEL, "ERROR")) {
+ *         System.out.println(event.getString(Field.MESSAGE));
+ *     }
+ * }
+ * file.close();
+ * </pre>
+ */
+public class EventFile implements Closeable {
+
+    public static final long DEFAULT_CHUNK_SIZE = 32L * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long[] boundaries;
+
+    public EventFile(File file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param file      the file to read
+     * @param chunkSize the approximate size of the chunks read on their own, at most 2GB
+     */
+    public EventFile(File file, long chunkSize) throws IOException {
+        if (chunkSize <= 0 || chunkSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Chunk size must be between 1 and " + Integer.MAX_VALUE);
+        }
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.boundaries = findBoundaries(chunkSize);
+    }
+
+    public int getChunkCount() {
+        return boundaries.length - 1;
+    }
+
+    /**
+     * @return a cursor over every event of the file, in order
+     */
+    public EventCursor cursor() {
+        return new EventCursor(channel, boundaries, 0, getChunkCount());
+    }
+
+    /**
+     * Reduce the events of the file on the calling thread.
+     */
+    public <R> R reduce(EventReduction<R> reduction) throws IOException {
+        R result = reduction.initial();
+        EventCursor cursor = cursor();
+        while (cursor.next()) {
+            reduction.accumulate(result, cursor);
+        }
+        return result;
+    }
+
+    /**
+     * Reduce the events of the file in parallel, one task per chunk.
+     * Results are combined in file order.
+     */
+    public <R> R reduce(EventReduction<R> reduction, ForkJoinPool pool) throws IOException {
+        try {
+            return pool.invoke(new ReduceTask<R>(reduction, 0, getChunkCount()));
+        } catch (RuntimeException e) {
+            // the pool may hand back a copy of the failure, so look for the cause
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw e;
+        }
+    }
+
+    public void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+
+    private long[] findBoundaries(long chunkSize) throws IOException {
+        long size = channel.size();
+        List<Long> found = new ArrayList<Long>();
+        found.add(0L);
+        long position = 0;
+        while (size - position > chunkSize) {
+            long next = lineStartAfter(position + chunkSize, size);
+            if (next >= size) {
+                break;
+            }
+            found.add(next);
+            position = next;
+        }
+        found.add(size);
+
+        long[] boundaries = new long[found.size()];
+        for (int i = 0; i < boundaries.length; i++) {
+            boundaries[i] = found.get(i);
+        }
+        return boundaries;
+    }
+
+    private long lineStartAfter(long position, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(8192);
+        while (position < size) {
+            window.clear();
+            int read = channel.read(window, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (window.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private class ReduceTask<R> extends RecursiveTask<R> {
+        private final EventReduction<R> reduction;
+        private final int from;
+        private final int to;
+
+        ReduceTask(EventReduction<R> reduction, int from, int to) {
+            this.reduction = reduction;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected R compute() {
+            if (to - from <= 1) {
+                R result = reduction.initial();
+                EventCursor cursor = new EventCursor(channel, boundaries, from, to);
+                try {
+                    while (cursor.next()) {
+                        reduction.accumulate(result, cursor);
+                    }
+                } catch (IOException e) {
+                    throw new ReadFailure(e);
+                }
+                return result;
+            }
+            int middle = (from + to) >>> 1;
+            ReduceTask<R> left = new ReduceTask<R>(reduction, from, middle);
+            left.fork();
+            R right = new ReduceTask<R>(reduction, middle, to).compute();
+            return reduction.combine(left.join(), right);
+        }
+    }
+
+    private static class ReadFailure extends RuntimeException {
+        ReadFailure(IOException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package net.logstash.log4j.reader;
+
+import net.logstash.log4j.appender.ShardedFileAppender;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges NDJSON event files into one stream ordered by "@timestamp", such as the
+ * segments written by {@link ShardedFileAppender}.
+ *
+ * Inputs do not have to be strictly in timestamp order. Threads sharing a segment
+ * take the event's timestamp before they get to write it, so a segment can hold an
+ * event a little older than the one before it. Such events are put back in place
+ * as long as they are out of order by no more than the reorder window
+ * ({@link #DEFAULT_WINDOW_MILLIS} by default): an event is only written once every
+ * input has been read past its timestamp plus the window. An event held up for
+ * longer than that, say by a long GC pause between taking its timestamp and writing
+ * it, still comes out late.
+ *
+ * Inputs are walked with memory-mapped {@link EventCursor}s and always read from
+ * the one that is furthest behind, so only the events within the window are held
+ * in memory, as undecoded lines. Events with the same timestamp come out in input
+ * order, then in the order they were read; events without a readable timestamp
+ * sort first.
+ *
+ * <pre>
+ * java -cp jsonevent-layout.jar net.logstash.log4j.reader.EventMerger api.log merged.log [window millis]
+ * </pre>
+ */
+public class EventMerger {
+
+    public static final long DEFAULT_WINDOW_MILLIS = 1000;
+
+    private EventMerger() {
+    }
+
+    /**
+     * One input, ordered by the latest timestamp read from it so far.
+     */
+    private static final class Input implements Comparable<Input> {
+        final int index;
+        final EventCursor cursor;
+        long latest = Long.MIN_VALUE;
+
+        Input(int index, EventCursor cursor) {
+            this.index = index;
+            this.cursor = cursor;
+        }
+
+        public int compareTo(Input other) {
+            if (latest != other.latest) {
+                return latest < other.latest ? -1 : 1;
+            }
+            return index < other.index ? -1 : index == other.index ? 0 : 1;
+        }
+    }
+
+    /**
+     * An event read but not written yet.
+     */
+    private static final class Pending implements Comparable<Pending> {
+        final long timestamp;
+        final int input;
+        final long sequence;
+        final byte[] line;
+
+        Pending(long timestamp, int input, long sequence, byte[] line) {
+            this.timestamp = timestamp;
+            this.input = input;
+            this.sequence = sequence;
+            this.line = line;
+        }
+
+        public int compareTo(Pending other) {
+            if (timestamp != other.timestamp) {
+                return timestamp < other.timestamp ? -1 : 1;
+            }
+            if (input != other.input) {
+                return input < other.input ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+
+    /**
+     * Merge files into a stream with the default reorder window.
+     *
+     * @param inputs the files to merge
+     * @param out    where the merged events are written, one per line
+     * @return how many events were written
+     */
+    public static long merge(List<File> inputs, OutputStream out) throws IOException {
+        return merge(inputs, out, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * Merge files into a stream.
+     *
+     * @param inputs       the files to merge, each out of timestamp order by no more than the window
+     * @param out          where the merged events are written, one per line
+     * @param windowMillis how far back in time an input may go
+     * @return how many events were written
+     */
+    public static long merge(List<File> inputs, OutputStream out, long windowMillis) throws IOException {
+        List<EventFile> files = new ArrayList<EventFile>();
+        try {
+            PriorityQueue<Input> reading = new PriorityQueue<Input>(Math.max(1, inputs.size()));
+            for (int i = 0; i < inputs.size(); i++) {
+                EventFile file = new EventFile(inputs.get(i));
+                files.add(file);
+                reading.add(new Input(i, file.cursor()));
+            }
+            PriorityQueue<Pending> pending = new PriorityQueue<Pending>();
+            long sequence = 0;
+            long count = 0;
+            while (true) {
+                Pending first = pending.peek();
+                Input behind = reading.peek();
+                if (first != null && (behind == null || settled(first.timestamp, behind.latest, windowMillis))) {
+                    pending.poll();
+                    out.write(first.line);
+                    count++;
+                    continue;
+                }
+                if (behind == null) {
+                    break;
+                }
+                reading.poll();
+                if (behind.cursor.next()) {
+                    long timestamp = behind.cursor.getTimestamp();
+                    pending.add(new Pending(timestamp, behind.index, sequence++, behind.cursor.copyLine()));
+                    behind.latest = Math.max(behind.latest, timestamp);
+                    reading.add(behind);
+                }
+            }
+            out.flush();
+            return count;
+        } finally {
+            for (EventFile file : files) {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Whether nothing still to be read from an input can go before an event: once an
+     * input has been read up to latest, it can only go back to latest minus the window.
+     */
+    private static boolean settled(long timestamp, long latest, long windowMillis) {
+        return latest > Long.MIN_VALUE + windowMillis && timestamp < latest - windowMillis;
+    }
+
+    /**
+     * Merge the segments written for a {@link ShardedFileAppender} File setting.
+     *
+     * @param file         the File option of the appender
+     * @param output       the file to write the merged events to
+     * @param windowMillis how far back in time a segment may go
+     * @return how many events were written
+     */
+    public static long mergeSegments(String file, File output, long windowMillis) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 64 * 1024);
+        try {
+            return merge(ShardedFileAppender.findSegments(file), out, windowMillis);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Merge the segments written for a {@link ShardedFileAppender} File setting with
+     * the default reorder window.
+     *
+     * @param file   the File option of the appender
+     * @param output the file to write the merged events to
+     * @return how many events were written
+     */
+    public static long mergeSegments(String file, File output) throws IOException {
+        return mergeSegments(file, output, DEFAULT_WINDOW_MILLIS);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.err.println("Usage: EventMerger <appender File setting> <output file> [window millis]");
+            System.exit(1);
+        }
+        long window = args.length == 3 ? Long.parseLong(args[2]) : DEFAULT_WINDOW_MILLIS;
+        long count = mergeSegments(args[0], new File(args[1]), window);
+        System.out.println("Merged " + count + " events into " + args[1]);
+    }
+}
@@ -0,0 +1,20 @@
+package net.logstash.log4j.reader;
+
+/**
+ * Folds the events of a file into a result, possibly in parallel: every chunk of
+ * the file gets its own {@link #initial()} result, which are then combined.
+ *
+ * @param <R> a mutable result, e.g. a counter or a map
+ */
+public interface EventReduction<R> {
+
+    R initial();
+
+    /**
+     * @param result the result for the current chunk
+     * @param event  the current event, only valid for the duration of the call
+     */
+    void accumulate(R result, EventCursor event);
+
+    R combine(R left, R right);
+}
@@ -0,0 +1,59 @@
+package net.logstash.log4j.reader;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A field name (or a path into nested objects) compiled to the bytes it is
+ * matched against, so looking it up in an event does not allocate.
+ */
+public final class Field {
+
+    public static final Field TIMESTAMP = Field.of("@timestamp");
+    public static final Field VERSION = Field.of("@version");
+    public static final Field MESSAGE = Field.of("message");
+    public static final Field LEVEL = Field.of("level");
+    public static final Field LOGGER_NAME = Field.of("logger_name");
+    public static final Field THREAD_NAME = Field.of("thread_name");
+    public static final Field SOURCE_HOST = Field.of("source_host");
+    public static final Field MDC = Field.of("mdc");
+    public static final Field EXCEPTION = Field.of("exception");
+
+    /** where {@link net.logstash.log4j.JSONEventLayoutV0} puts the level */
+    public static final Field V0_LEVEL = Field.of("@fields", "level");
+    public static final Field V0_MESSAGE = Field.of("@message");
+
+    final byte[][] path;
+    private final String name;
+
+    private Field(String[] names) {
+        path = new byte[names.length][];
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            try {
+                path[i] = names[i].getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            if (i > 0) {
+                joined.append('.');
+            }
+            joined.append(names[i]);
+        }
+        name = joined.toString();
+    }
+
+    /**
+     * @param names the field name, followed by the names of nested fields if any
+     * @return the compiled field
+     */
+    public static Field of(String... names) {
+        if (names.length == 0) {
+            throw new IllegalArgumentException("A field needs a name");
+        }
+        return new Field(names);
+    }
+
+    public String toString() {
+        return name;
+    }
+}
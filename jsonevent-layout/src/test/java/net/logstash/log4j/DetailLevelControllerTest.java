@@ -0,0 +1,64 @@
+package net.logstash.log4j;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class DetailLevelControllerTest {
+
+    @Test
+    public void testStepsDownUnderLoad() {
+        DetailLevelController controller = new DetailLevelController("1,2,3");
+        Assert.assertEquals("Controller does not start at full detail", DetailLevelController.FULL, controller.getLevel());
+
+        for (int i = 0; i < 100; i++) {
+            controller.record(1000000L);
+        }
+        Assert.assertEquals("Controller did not shed all detail", DetailLevelController.DROP_VERBOSE_MDC, controller.getLevel());
+    }
+
+    @Test
+    public void testRestoresDetailWhenLoadFalls() {
+        DetailLevelController controller = new DetailLevelController("1,2,3");
+        for (int i = 0; i < 100; i++) {
+            controller.record(1000000L);
+        }
+        for (int i = 0; i < 1000; i++) {
+            controller.record(0L);
+        }
+        Assert.assertEquals("Controller did not restore full detail", DetailLevelController.FULL, controller.getLevel());
+    }
+
+    @Test
+    public void testStaysPutBetweenThresholds() {
+        DetailLevelController controller = new DetailLevelController("100,200,300");
+        for (int i = 0; i < 200; i++) {
+            controller.record(150000L);
+        }
+        Assert.assertEquals("Controller is not at the first degraded level", DetailLevelController.DROP_LOCATION, controller.getLevel());
+    }
+
+    /**
+     * Encoding costs 1 ms with full detail and 100 us without location, and the load
+     * never changes: the controller should settle on dropping location instead of
+     * flapping back to full detail whenever the cheap events pull the average down.
+     */
+    @Test
+    public void testStaysDegradedUnderSteadyLoad() {
+        DetailLevelController controller = new DetailLevelController("500,5000,10000");
+        int changes = 0;
+        int degraded = 0;
+        int previous = controller.getLevel();
+        for (int i = 0; i < 100000; i++) {
+            controller.record(controller.getLevel() == DetailLevelController.FULL ? 1000000L : 100000L);
+            if (controller.getLevel() != previous) {
+                changes++;
+                previous = controller.getLevel();
+            }
+            if (i >= 50000 && controller.getLevel() == DetailLevelController.DROP_LOCATION) {
+                degraded++;
+            }
+        }
+        Assert.assertTrue("Level flapped " + changes + " times", changes <= 25);
+        Assert.assertTrue("Level did not settle, degraded for " + degraded + " of 50000 events", degraded > 49900);
+    }
+}
@@ -1,10 +1,12 @@
 package net.logstash.log4j;
 
 import junit.framework.Assert;
+import net.logstash.log4j.fields.FieldProvider;
 import net.minidev.json.JSONObject;
 import net.minidev.json.JSONValue;
 import org.apache.log4j.*;
 import org.apache.log4j.or.ObjectRenderer;
+import org.apache.log4j.spi.LoggingEvent;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.AfterClass;
@@ -13,6 +15,7 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Created with IntelliJ IDEA.
@@ -256,6 +259,195 @@ public class JSONEventLayoutV1Test {
         layout.setLocationInfo(prevLocationInfo);
     }
 
+    @Test
+    public void testJSONEventLayoutAdaptiveDetail() {
+        JSONEventLayoutV1 layout = (JSONEventLayoutV1) appender.getLayout();
+        String prevThresholds = layout.getDetailThresholds();
+        layout.setAdaptiveDetail(true);
+        // every event is "slow", so each one pushes the level up a step
+        layout.setDetailThresholds("0,0,0");
+
+        logger.info("full detail");
+        logger.info("no location");
+        logger.info("truncated stack traces");
+        MDC.put("foo", "bar");
+        logger.info("no info mdc", new IllegalArgumentException("kaboom"));
+        logger.warn("warn mdc");
+        MDC.remove("foo");
+
+        String[] messages = appender.getMessages();
+        JSONObject full = (JSONObject) JSONValue.parse(messages[0]);
+        JSONObject noLocation = (JSONObject) JSONValue.parse(messages[1]);
+        JSONObject noMdc = (JSONObject) JSONValue.parse(messages[3]);
+        JSONObject warnMdc = (JSONObject) JSONValue.parse(messages[4]);
+
+        Assert.assertEquals("detail_level is wrong", 0, ((Number) full.get("detail_level")).intValue());
+        Assert.assertTrue("Full event is missing location info", full.containsKey("file"));
+        Assert.assertEquals("detail_level is wrong", 1, ((Number) noLocation.get("detail_level")).intValue());
+        Assert.assertFalse("Degraded event contains location info", noLocation.containsKey("file"));
+        Assert.assertEquals("detail_level is wrong", 3, ((Number) noMdc.get("detail_level")).intValue());
+        Assert.assertFalse("Degraded INFO event contains mdc", noMdc.containsKey("mdc"));
+        String stackTrace = (String) ((JSONObject) noMdc.get("exception")).get("stacktrace");
+        Assert.assertTrue("Stack trace was not truncated", stackTrace.endsWith(" more"));
+        Assert.assertTrue("Degraded WARN event is missing mdc", warnMdc.containsKey("mdc"));
+
+        layout.setDetailThresholds(prevThresholds);
+        layout.setAdaptiveDetail(false);
+    }
+
+    @Test
+    public void testJSONEventLayoutRedaction() {
+        JSONEventLayoutV1 layout = (JSONEventLayoutV1) appender.getLayout();
+        layout.setRedactKeys("password=");
+        layout.setRedactMdcKeys("secret");
+        layout.setRedactEmails(true);
+        layout.activateOptions();
+
+        MDC.put("secret", "hunter2");
+        MDC.put("contact", "jane@example.com");
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("secret", "hunter2");
+        nested.put("owner", "jane@example.com");
+        MDC.put("nested", nested);
+        logger.warn("login for jane@example.com with password=hunter2");
+        MDC.remove("secret");
+        MDC.remove("contact");
+        MDC.remove("nested");
+
+        String message = appender.getMessages()[0];
+        Assert.assertFalse("Secret leaked into the event", message.contains("hunter2"));
+        Assert.assertFalse("Email leaked into the event", message.contains("jane@example.com"));
+        JSONObject jsonObject = (JSONObject) JSONValue.parse(message);
+        Assert.assertEquals("Message was not redacted", "login for **** with password=****", jsonObject.get("message"));
+        JSONObject mdc = (JSONObject) jsonObject.get("mdc");
+        Assert.assertEquals("MDC key was not masked", "****", mdc.get("secret"));
+        Assert.assertEquals("MDC value was not redacted", "****", mdc.get("contact"));
+        Assert.assertEquals("Nested MDC key was not masked", "****", ((JSONObject) mdc.get("nested")).get("secret"));
+        Assert.assertEquals("Nested MDC value was not redacted", "****", ((JSONObject) mdc.get("nested")).get("owner"));
+
+        appender.clear();
+        logger.error("failed", new IllegalStateException("bad \"password=hunter2\" for jane@example.com"));
+        message = appender.getMessages()[0];
+        Assert.assertFalse("Secret leaked into the exception", message.contains("hunter2"));
+        JSONObject exception = (JSONObject) ((JSONObject) JSONValue.parse(message)).get("exception");
+        Assert.assertEquals("Exception message was not redacted", "bad \"password=****\" for ****", exception.get("exception_message"));
+
+        layout.setRedactKeys(null);
+        layout.setRedactMdcKeys(null);
+        layout.setRedactEmails(false);
+        layout.activateOptions();
+    }
+
+    @Test
+    public void testJSONEventLayoutBulkOutput() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setBulkIndex("'logstash-'yyyy.MM.dd");
+        layout.activateOptions();
+
+        LoggingEvent event = new LoggingEvent(getClass().getName(), logger, 1364844991207L, Level.INFO, "bulk me", null);
+        String[] lines = layout.format(event).split("\n");
+
+        Assert.assertEquals("Bulk output is not an action/source pair", 2, lines.length);
+        JSONObject action = (JSONObject) JSONValue.parse(lines[0]);
+        JSONObject index = (JSONObject) action.get("index");
+        Assert.assertEquals("Index name is wrong", "logstash-2013.04.01", index.get("_index"));
+        Assert.assertTrue("Event is not valid JSON", JSONValue.isValidJsonStrict(lines[1]));
+
+        LoggingEvent nextDay = new LoggingEvent(getClass().getName(), logger, 1364844991207L + 86400000L, Level.INFO, "bulk me", null);
+        action = (JSONObject) JSONValue.parse(layout.format(nextDay).split("\n")[0]);
+        Assert.assertEquals("Index name did not roll over", "logstash-2013.04.02", ((JSONObject) action.get("index")).get("_index"));
+    }
+
+    @Test
+    public void testJSONEventLayoutHourlyBulkIndex() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1();
+        layout.setBulkIndex("'logstash-'yyyy.MM.dd.HH");
+        layout.setBulkAction("delete");
+        Assert.assertEquals("Invalid bulk action was accepted", "index", layout.getBulkAction());
+        layout.setBulkAction("create");
+        layout.activateOptions();
+
+        // 2013-04-01T19:36:31.207Z, then the same day an hour later
+        LoggingEvent event = new LoggingEvent(getClass().getName(), logger, 1364844991207L, Level.INFO, "bulk me", null);
+        JSONObject action = (JSONObject) JSONValue.parse(layout.format(event).split("\n")[0]);
+        Assert.assertEquals("Index name is wrong", "logstash-2013.04.01.19", ((JSONObject) action.get("create")).get("_index"));
+
+        LoggingEvent nextHour = new LoggingEvent(getClass().getName(), logger, 1364844991207L + 3600000L, Level.INFO, "bulk me", null);
+        action = (JSONObject) JSONValue.parse(layout.format(nextHour).split("\n")[0]);
+        Assert.assertEquals("Index name did not roll over", "logstash-2013.04.01.20", ((JSONObject) action.get("create")).get("_index"));
+
+        Assert.assertEquals(60000L, JSONEventLayoutV1.indexPeriod("'logstash-'yyyy.MM.dd.HH.mm"));
+        Assert.assertEquals("Quoted letters count as a field", 86400000L, JSONEventLayoutV1.indexPeriod("'hourly-'yyyy.MM.dd"));
+    }
+
+    @Test
+    public void testJSONEventLayoutIgnoresReservedFieldNames() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1(false);
+        layout.setUserFields("message:hijacked,source_host:elsewhere,env:test");
+        layout.addFieldProvider(new FieldProvider() {
+            public String getFieldName() { return "level"; }
+            public Scope getScope() { return Scope.CONSTANT; }
+            public long getIntervalMillis() { return 0; }
+            public Object getValue(LoggingEvent loggingEvent) { return "FATAL"; }
+        });
+        layout.activateOptions();
+
+        LoggingEvent event = new LoggingEvent(getClass().getName(), logger, 1364844991207L, Level.INFO, "the real message", null);
+        String message = layout.format(event);
+        Assert.assertEquals("Field was written twice", message.indexOf("\"message\":"), message.lastIndexOf("\"message\":"));
+        Assert.assertEquals("Field was written twice", message.indexOf("\"level\":"), message.lastIndexOf("\"level\":"));
+        Assert.assertEquals("Field was written twice", message.indexOf("\"source_host\":"), message.lastIndexOf("\"source_host\":"));
+        JSONObject jsonObject = (JSONObject) JSONValue.parse(message);
+        Assert.assertEquals("the real message", jsonObject.get("message"));
+        Assert.assertEquals("INFO", jsonObject.get("level"));
+        Assert.assertEquals("test", jsonObject.get("env"));
+    }
+
+    @Test
+    public void testJSONEventLayoutWritesDuplicateExtraFieldsOnce() {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1(false);
+        layout.setUserFields("pid:fromconfig,env:test");
+        layout.setFieldProviders("net.logstash.log4j.fields.PidFieldProvider");
+        layout.addFieldProvider(new FieldProvider() {
+            public String getFieldName() { return "env"; }
+            public Scope getScope() { return Scope.EVENT; }
+            public long getIntervalMillis() { return 0; }
+            public Object getValue(LoggingEvent loggingEvent) { return "first"; }
+        });
+        layout.addFieldProvider(new FieldProvider() {
+            public String getFieldName() { return "env"; }
+            public Scope getScope() { return Scope.CONSTANT; }
+            public long getIntervalMillis() { return 0; }
+            public Object getValue(LoggingEvent loggingEvent) { return "last"; }
+        });
+        layout.activateOptions();
+
+        LoggingEvent event = new LoggingEvent(getClass().getName(), logger, 1364844991207L, Level.INFO, "duplicates", null);
+        String message = layout.format(event);
+        Assert.assertEquals("Field was written twice", message.indexOf("\"pid\":"), message.lastIndexOf("\"pid\":"));
+        Assert.assertEquals("Field was written twice", message.indexOf("\"env\":"), message.lastIndexOf("\"env\":"));
+        JSONObject jsonObject = (JSONObject) JSONValue.parse(message);
+        Assert.assertTrue("Provider did not override the user field", jsonObject.get("pid") instanceof Number);
+        Assert.assertEquals("Last provider did not win", "last", jsonObject.get("env"));
+    }
+
+    @Test
+    public void testJSONEventLayoutHasProvidedFields() {
+        JSONEventLayoutV1 layout = (JSONEventLayoutV1) appender.getLayout();
+        layout.setFieldProviders("net.logstash.log4j.fields.PidFieldProvider,net.logstash.log4j.fields.HeapUsageFieldProvider");
+        layout.activateOptions();
+
+        logger.info("this is an info message with provided fields");
+        String message = appender.getMessages()[0];
+        Assert.assertTrue("Event is not valid JSON", JSONValue.isValidJsonStrict(message));
+        JSONObject jsonObject = (JSONObject) JSONValue.parse(message);
+        Assert.assertTrue("Event does not contain field 'pid'", jsonObject.containsKey("pid"));
+        Assert.assertTrue("Event does not contain field 'heap_used'", jsonObject.containsKey("heap_used"));
+
+        layout.setFieldProviders(null);
+        layout.activateOptions();
+    }
+
     @Test
     @Ignore
     public void measureJSONEventLayoutLocationInfoPerformance() {
@@ -0,0 +1,113 @@
+package net.logstash.log4j;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class RedactorTest {
+    static final Redactor redactor = new Redactor(
+            Arrays.asList("password=", "Bearer ", "token="),
+            true,
+            true,
+            Arrays.asList("Authorization"),
+            Redactor.DEFAULT_MASK);
+
+    @Test
+    public void testNoMatchReturnsSameInstance() {
+        String clean = "nothing to see here, order 1234 shipped";
+        Assert.assertSame("Clean string was copied", clean, redactor.redact(clean));
+    }
+
+    @Test
+    public void testKeyValuesAreMasked() {
+        Assert.assertEquals("login with password=****, done", redactor.redact("login with password=hunter2, done"));
+        Assert.assertEquals("Authorization: Bearer ****", redactor.redact("Authorization: Bearer abc.def.ghi"));
+        Assert.assertEquals("a=1&token=****&b=2", redactor.redact("a=1&token=s3cr3t&b=2"));
+    }
+
+    @Test
+    public void testFailureLinksFindOverlappingKeys() {
+        Redactor overlapping = new Redactor(Arrays.asList("abd", "bc="), false, false, Collections.<String>emptyList(), "#");
+        Assert.assertEquals("abc=#", overlapping.redact("abc=xyz"));
+    }
+
+    @Test
+    public void testEmailsAreMasked() {
+        Assert.assertEquals("mail **** now.", redactor.redact("mail john.doe+logs@example.co.uk now."));
+        Assert.assertEquals("not an email: foo@bar", redactor.redact("not an email: foo@bar"));
+    }
+
+    @Test
+    public void testCardsAreMasked() {
+        Assert.assertEquals("card **** ok", redactor.redact("card 4111 1111 1111 1111 ok"));
+        Assert.assertEquals("card ****", redactor.redact("card 4111-1111-1111-1111"));
+        Assert.assertEquals("Luhn-invalid number was masked", "id 4111111111111112", redactor.redact("id 4111111111111112"));
+    }
+
+    @Test
+    public void testCardAfterKeyIsMaskedWhole() {
+        Redactor keyed = new Redactor(Arrays.asList("card="), false, true, Collections.<String>emptyList(), Redactor.DEFAULT_MASK);
+        Assert.assertEquals("card=**** ok", keyed.redact("card=4111 1111 1111 1111 ok"));
+        Assert.assertEquals("card=****", keyed.redact("card=4111-1111-1111-1111"));
+        Assert.assertEquals("card=**** 1234 ok", keyed.redact("card=abc 1234 ok"));
+
+        StringBuilder out = new StringBuilder("{\"message\":\"");
+        int start = out.length();
+        out.append("paid with card=4111 1111 1111 1111, thanks");
+        keyed.mask(out, start);
+        Assert.assertEquals("{\"message\":\"paid with card=****, thanks", out.toString());
+    }
+
+    @Test
+    public void testMaskInPlace() {
+        StringBuilder out = new StringBuilder("{\"message\":\"");
+        int start = out.length();
+        out.append("a@b.c mail jane@example.com, password=hunter2 and card 4111 1111 1111 1111");
+        redactor.mask(out, start);
+        Assert.assertEquals("{\"message\":\"**** mail ****, password=**** and card ****", out.toString());
+
+        StringBuilder clean = new StringBuilder("jane password=");
+        int cleanStart = clean.length();
+        clean.append("@example.com");
+        redactor.mask(clean, cleanStart);
+        Assert.assertEquals("Text before start was masked", "jane password=@example.com", clean.toString());
+    }
+
+    @Test
+    public void testMapRedaction() {
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("user", "jane@example.com");
+        Map<String, Object> mdc = new HashMap<String, Object>();
+        mdc.put("authorization", "Basic Zm9vOmJhcg==");
+        mdc.put("nested", nested);
+        mdc.put("request_id", "42");
+
+        Map redacted = redactor.redactMap(Collections.unmodifiableMap(mdc));
+        Assert.assertEquals(Redactor.DEFAULT_MASK, redacted.get("authorization"));
+        Assert.assertEquals(Redactor.DEFAULT_MASK, ((Map) redacted.get("nested")).get("user"));
+        Assert.assertEquals("42", redacted.get("request_id"));
+
+        Map clean = Collections.singletonMap("request_id", "42");
+        Assert.assertSame("Clean map was copied", clean, redactor.redactMap(clean));
+    }
+
+    @Test
+    public void testMaskKeysLeavesTextToTheEncoder() {
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("authorization", "Basic Zm9vOmJhcg==");
+        nested.put("user", "jane@example.com");
+        Map<String, Object> mdc = new HashMap<String, Object>();
+        mdc.put("nested", Collections.unmodifiableMap(nested));
+
+        Map masked = redactor.maskKeys(mdc);
+        Assert.assertEquals(Redactor.DEFAULT_MASK, ((Map) masked.get("nested")).get("authorization"));
+        Assert.assertEquals("jane@example.com", ((Map) masked.get("nested")).get("user"));
+
+        Map clean = Collections.singletonMap("user", "jane@example.com");
+        Assert.assertSame("Map without masked keys was copied", clean, redactor.maskKeys(clean));
+    }
+}
@@ -0,0 +1,111 @@
+package net.logstash.log4j.appender;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashSet;
+import java.util.Set;
+
+public class ByteRingBufferTest {
+
+    @Test
+    public void testWrapsAround() throws Exception {
+        ByteRingBuffer ring = new ByteRingBuffer(10);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+
+        Assert.assertTrue(ring.offer("abcdef\n".getBytes("UTF-8")));
+        Assert.assertFalse("Ring accepted more than its capacity", ring.offer("ghij\n".getBytes("UTF-8")));
+        Assert.assertEquals(7, ring.drainTo(channel));
+        Assert.assertTrue(ring.offer("ghijklm\n".getBytes("UTF-8")));
+        Assert.assertEquals(8, ring.drainTo(channel));
+        Assert.assertEquals(0, ring.drainTo(channel));
+
+        Assert.assertEquals("abcdef\nghijklm\n", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testFailedWriteIsNotRepeated() throws Exception {
+        ByteRingBuffer ring = new ByteRingBuffer(10);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final WritableByteChannel target = Channels.newChannel(out);
+        final int[] writes = new int[1];
+        // fails once, on the write of the part that wrapped around
+        WritableByteChannel failing = new WritableByteChannel() {
+            public int write(ByteBuffer source) throws IOException {
+                if (++writes[0] == 3) {
+                    throw new IOException("disk full");
+                }
+                return target.write(source);
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+
+        Assert.assertTrue(ring.offer("abcdef\n".getBytes("UTF-8")));
+        Assert.assertEquals(7, ring.drainTo(failing));
+        Assert.assertTrue(ring.offer("ghijklm\n".getBytes("UTF-8")));
+        try {
+            ring.drainTo(failing);
+            Assert.fail("Write did not fail");
+        } catch (IOException expected) {
+        }
+        Assert.assertEquals("The part that was written is still queued", 5, ring.getBacklog());
+        Assert.assertEquals(5, ring.drainTo(failing));
+
+        Assert.assertEquals("abcdef\nghijklm\n", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final ByteRingBuffer ring = new ByteRingBuffer(4096);
+        final int producers = 4;
+        final int records = 5000;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < records; i++) {
+                        byte[] record = ("producer-" + producer + "-record-" + i + "\n").getBytes();
+                        while (!ring.offer(record)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        boolean alive = true;
+        while (alive) {
+            ring.drainTo(channel);
+            alive = false;
+            for (Thread thread : threads) {
+                alive |= thread.isAlive();
+            }
+        }
+        ring.drainTo(channel);
+
+        String[] lines = out.toString("UTF-8").split("\n");
+        Set<String> unique = new HashSet<String>();
+        for (String line : lines) {
+            Assert.assertTrue("Record was torn: " + line, line.matches("producer-\\d-record-\\d+"));
+            unique.add(line);
+        }
+        Assert.assertEquals("Records were lost or duplicated", producers * records, unique.size());
+        Assert.assertEquals("Records were lost or duplicated", producers * records, lines.length);
+    }
+}
@@ -0,0 +1,214 @@
+package net.logstash.log4j.appender;
+
+import junit.framework.Assert;
+import net.logstash.log4j.JSONEventLayoutV1;
+import net.logstash.log4j.SharedJSONEventLayoutV1;
+import net.minidev.json.JSONValue;
+import org.apache.log4j.Appender;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.ErrorHandler;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FanOutAppenderTest {
+    static Logger logger = Logger.getLogger(FanOutAppenderTest.class);
+
+    FanOutAppender fanOut;
+    CountingLayout layout;
+    QuietErrorHandler errors;
+
+    static class CountingLayout extends JSONEventLayoutV1 {
+        volatile int formatted = 0;
+
+        public String format(LoggingEvent loggingEvent) {
+            formatted++;
+            return super.format(loggingEvent);
+        }
+    }
+
+    static class QuietErrorHandler implements ErrorHandler {
+        final AtomicInteger errors = new AtomicInteger();
+
+        public void setLogger(Logger logger) {
+        }
+
+        public void error(String message, Exception e, int errorCode) {
+            errors.incrementAndGet();
+        }
+
+        public void error(String message) {
+            errors.incrementAndGet();
+        }
+
+        public void error(String message, Exception e, int errorCode, LoggingEvent event) {
+            errors.incrementAndGet();
+        }
+
+        public void setAppender(Appender appender) {
+        }
+
+        public void setBackupAppender(Appender appender) {
+        }
+
+        public void activateOptions() {
+        }
+    }
+
+    static class CollectingAppender extends AppenderSkeleton {
+        final List<String> messages = new CopyOnWriteArrayList<String>();
+        final CountDownLatch received;
+
+        CollectingAppender(String name, int expected) {
+            setName(name);
+            setLayout(new SharedJSONEventLayoutV1());
+            received = new CountDownLatch(expected);
+        }
+
+        protected void append(LoggingEvent event) {
+            messages.add(layout.format(event));
+            received.countDown();
+        }
+
+        public void close() {
+        }
+
+        public boolean requiresLayout() {
+            return true;
+        }
+    }
+
+    @Before
+    public void setupFanOut() {
+        layout = new CountingLayout();
+        fanOut = new FanOutAppender();
+        fanOut.setLayout(layout);
+        fanOut.setThreshold(Level.TRACE);
+        errors = new QuietErrorHandler();
+        fanOut.setErrorHandler(errors);
+        logger.setAdditivity(false);
+        logger.addAppender(fanOut);
+    }
+
+    @After
+    public void removeFanOut() {
+        logger.removeAppender(fanOut);
+        fanOut.close();
+    }
+
+    @Test
+    public void testEncodesOncePerEvent() throws InterruptedException {
+        CollectingAppender[] children = new CollectingAppender[3];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = new CollectingAppender("child" + i, 10);
+            fanOut.addAppender(children[i]);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            logger.info("fan out " + i);
+        }
+
+        for (CollectingAppender child : children) {
+            Assert.assertTrue("Child did not get every event", child.received.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue("Event is not valid JSON", JSONValue.isValidJsonStrict(child.messages.get(0)));
+            Assert.assertSame("Child did not get the shared encoding", children[0].messages.get(0), child.messages.get(0));
+        }
+        Assert.assertEquals("Events were encoded more than once", 10, layout.formatted);
+    }
+
+    @Test
+    public void testSlowAndFailingChildrenAreIsolated() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        CollectingAppender slow = new CollectingAppender("slow", 1) {
+            protected void append(LoggingEvent event) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        CollectingAppender failing = new CollectingAppender("failing", 1) {
+            protected void append(LoggingEvent event) {
+                throw new IllegalStateException("sink is down");
+            }
+        };
+        CollectingAppender healthy = new CollectingAppender("healthy", 50);
+        fanOut.setBufferSize(16);
+        fanOut.addAppender(slow);
+        fanOut.addAppender(failing);
+        fanOut.addAppender(healthy);
+
+        for (int i = 0; i < 50; i++) {
+            logger.info("fan out " + i);
+            Thread.sleep(1);
+        }
+
+        Assert.assertTrue("Healthy child was held back", healthy.received.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue("Slow child did not drop events", fanOut.getDroppedCount(slow) > 0);
+        Assert.assertTrue("Failures were not reported", errors.errors.get() > 0);
+        release.countDown();
+    }
+
+    @Test
+    public void testCloseDiscardsWhatAStuckChildHasNotTaken() throws InterruptedException {
+        final CountDownLatch taken = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        CollectingAppender stuck = new CollectingAppender("stuck", 1) {
+            protected void append(LoggingEvent event) {
+                taken.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            }
+        };
+        fanOut.setBufferSize(16);
+        fanOut.addAppender(stuck);
+
+        logger.info("taken");
+        Assert.assertTrue("Child did not take the first event", taken.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            logger.info("queued " + i);
+        }
+
+        fanOut.close();
+        release.countDown();
+        Assert.assertFalse("Child was interrupted on close", interrupted.get());
+        Assert.assertEquals("Queued events were not counted as dropped", 5, fanOut.getDroppedCount(stuck));
+        Assert.assertEquals(5, fanOut.getDroppedCount());
+    }
+
+    @Test
+    public void testChildSurvivesAnError() throws InterruptedException {
+        final AtomicBoolean failed = new AtomicBoolean();
+        CollectingAppender flaky = new CollectingAppender("flaky", 4) {
+            protected void append(LoggingEvent event) {
+                if (failed.compareAndSet(false, true)) {
+                    throw new NoClassDefFoundError("sink/Driver");
+                }
+                super.append(event);
+            }
+        };
+        fanOut.addAppender(flaky);
+
+        for (int i = 0; i < 5; i++) {
+            logger.info("fan out " + i);
+        }
+
+        Assert.assertTrue("Child stopped after an Error", flaky.received.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("Error was not reported", 1, errors.errors.get());
+    }
+}
@@ -0,0 +1,149 @@
+package net.logstash.log4j.appender;
+
+import junit.framework.Assert;
+import net.logstash.log4j.JSONEventLayoutV1;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public class RingBufferFileAppenderTest {
+    static Logger logger = Logger.getLogger(RingBufferFileAppenderTest.class);
+
+    @Test
+    public void testWritesEveryEvent() throws Exception {
+        File file = File.createTempFile("ring", ".log");
+        file.deleteOnExit();
+        RingBufferFileAppender appender = new RingBufferFileAppender();
+        appender.setName("ring");
+        appender.setFile(file.getPath());
+        appender.setAppend(false);
+        // small enough that the loggers have to wait for the writer
+        appender.setBufferSize(16 * 1024);
+        appender.setLayout(new JSONEventLayoutV1(false));
+        appender.activateOptions();
+        logger.setAdditivity(false);
+        logger.addAppender(appender);
+
+        for (int i = 0; i < 2000; i++) {
+            logger.info("ring event " + i);
+        }
+        logger.removeAppender(appender);
+        appender.close();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            Assert.assertTrue("Event is not valid JSON", JSONValue.isValidJsonStrict(line));
+            Assert.assertEquals("Events are out of order", "ring event " + count, ((JSONObject) JSONValue.parse(line)).get("message"));
+            count++;
+        }
+        reader.close();
+        Assert.assertEquals("Events were lost", 2000, count);
+        Assert.assertEquals("Events were dropped", 0, appender.getDroppedCount());
+    }
+
+    @Test
+    public void testCloseGivesUpOnAFailingFile() throws Exception {
+        File file = File.createTempFile("ring", ".log");
+        file.deleteOnExit();
+        RingBufferFileAppender appender = new RingBufferFileAppender() {
+            protected WritableByteChannel openChannel() {
+                return new WritableByteChannel() {
+                    public int write(ByteBuffer source) throws IOException {
+                        throw new IOException("disk full");
+                    }
+
+                    public boolean isOpen() {
+                        return true;
+                    }
+
+                    public void close() {
+                    }
+                };
+            }
+        };
+        appender.setName("failing");
+        appender.setFile(file.getPath());
+        appender.setErrorHandler(new FanOutAppenderTest.QuietErrorHandler());
+        appender.setLayout(new JSONEventLayoutV1(false));
+        appender.activateOptions();
+
+        for (int i = 0; i < 10; i++) {
+            appender.doAppend(new LoggingEvent(getClass().getName(), logger, Level.INFO, "ring event " + i, null));
+        }
+        long start = System.currentTimeMillis();
+        appender.close();
+        Assert.assertTrue("Close waited for the failing file", System.currentTimeMillis() - start < RingBufferFileAppender.CLOSE_TIMEOUT_MILLIS);
+        Assert.assertTrue("Abandoned bytes were not counted", appender.getAbandonedBytes() > 0);
+    }
+
+    static int writerThreads(String name) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("RingBufferFileAppender-" + name) && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testActivatingAgainStopsTheOldWriter() throws Exception {
+        File file = File.createTempFile("ring", ".log");
+        file.deleteOnExit();
+        final int[] openedChannels = new int[1];
+        final int[] closedChannels = new int[1];
+        RingBufferFileAppender appender = new RingBufferFileAppender() {
+            protected WritableByteChannel openChannel() throws IOException {
+                openedChannels[0]++;
+                final WritableByteChannel channel = super.openChannel();
+                return new WritableByteChannel() {
+                    public int write(ByteBuffer src) throws IOException {
+                        return channel.write(src);
+                    }
+
+                    public boolean isOpen() {
+                        return channel.isOpen();
+                    }
+
+                    public void close() throws IOException {
+                        closedChannels[0]++;
+                        channel.close();
+                    }
+                };
+            }
+        };
+        appender.setName("reactivated");
+        appender.setFile(file.getPath());
+        appender.setAppend(true);
+        appender.setLayout(new JSONEventLayoutV1(false));
+        appender.activateOptions();
+        appender.doAppend(new LoggingEvent(Logger.class.getName(), logger, Level.INFO, "first", null));
+        appender.activateOptions();
+        Assert.assertEquals("Old channel was not closed", 1, closedChannels[0]);
+        Assert.assertEquals("Old writer is still running", 1, writerThreads("reactivated"));
+        appender.doAppend(new LoggingEvent(Logger.class.getName(), logger, Level.INFO, "second", null));
+        appender.close();
+
+        Assert.assertEquals(2, openedChannels[0]);
+        Assert.assertEquals(2, closedChannels[0]);
+        Assert.assertEquals(0, writerThreads("reactivated"));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        Assert.assertEquals("first", ((JSONObject) JSONValue.parse(reader.readLine())).get("message"));
+        Assert.assertEquals("second", ((JSONObject) JSONValue.parse(reader.readLine())).get("message"));
+        Assert.assertNull(reader.readLine());
+        reader.close();
+    }
+}
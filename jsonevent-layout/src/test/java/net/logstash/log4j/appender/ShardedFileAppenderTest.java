@@ -0,0 +1,172 @@
+package net.logstash.log4j.appender;
+
+import junit.framework.Assert;
+import net.logstash.log4j.JSONEventLayoutV1;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.helpers.OnlyOnceErrorHandler;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ShardedFileAppenderTest {
+    static Logger logger = Logger.getLogger(ShardedFileAppenderTest.class);
+
+    static final int THREADS = 8;
+    static final int EVENTS = 500;
+
+    static ShardedFileAppender appender(File dir, int stripes) {
+        ShardedFileAppender appender = new ShardedFileAppender();
+        appender.setName("sharded");
+        appender.setFile(new File(dir, "api.log").getPath());
+        appender.setStripes(stripes);
+        appender.setImmediateFlush(false);
+        appender.setLayout(new JSONEventLayoutV1(false));
+        appender.activateOptions();
+        return appender;
+    }
+
+    static File tempDir() throws Exception {
+        File dir = File.createTempFile("sharded", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    /**
+     * Calls doAppend from the threads, as a logging bridge would. Going through
+     * {@link Logger#info(Object)} would serialize them on the category's monitor.
+     */
+    static void logFromThreads(final ShardedFileAppender appender) throws InterruptedException {
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < EVENTS; i++) {
+                        appender.doAppend(new LoggingEvent(Logger.class.getName(), logger, Level.INFO, id + ":" + i, null));
+                    }
+                }
+            }, "sharded-" + t);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        appender.close();
+    }
+
+    /**
+     * Reads every segment back, checking each thread wrote to a single segment and
+     * its events there are complete and in order.
+     */
+    static int readSegments(List<File> segments) throws Exception {
+        Map<String, File> segmentByThread = new HashMap<String, File>();
+        int count = 0;
+        for (File segment : segments) {
+            segment.deleteOnExit();
+            Map<String, Integer> nextByThread = new HashMap<String, Integer>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(segment), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Assert.assertTrue("Event is not valid JSON: " + line, JSONValue.isValidJsonStrict(line));
+                String[] message = ((String) ((JSONObject) JSONValue.parse(line)).get("message")).split(":");
+                File previous = segmentByThread.put(message[0], segment);
+                Assert.assertTrue("Thread " + message[0] + " wrote to several segments", previous == null || previous.equals(segment));
+                Integer expected = nextByThread.get(message[0]);
+                Assert.assertEquals("Events of a thread are out of order in " + segment.getName(),
+                        expected == null ? 0 : expected.intValue(), Integer.parseInt(message[1]));
+                nextByThread.put(message[0], Integer.parseInt(message[1]) + 1);
+                count++;
+            }
+            reader.close();
+        }
+        return count;
+    }
+
+    @Test
+    public void testStripedSegments() throws Exception {
+        File dir = tempDir();
+        ShardedFileAppender appender = appender(dir, 3);
+        logFromThreads(appender);
+
+        List<File> segments = ShardedFileAppender.findSegments(new File(dir, "api.log").getPath());
+        Assert.assertEquals("Wrong number of segments", 3, segments.size());
+        Assert.assertEquals(appender.getSegmentFiles().size(), segments.size());
+        Assert.assertEquals("Events were lost", THREADS * EVENTS, readSegments(segments));
+    }
+
+    @Test
+    public void testSegmentPerThread() throws Exception {
+        File dir = tempDir();
+        ShardedFileAppender appender = appender(dir, 0);
+        logFromThreads(appender);
+
+        List<File> segments = ShardedFileAppender.findSegments(new File(dir, "api.log").getPath());
+        Assert.assertEquals("Every thread should have its own segment", THREADS, segments.size());
+        Assert.assertEquals("Events were lost", THREADS * EVENTS, readSegments(segments));
+    }
+
+    @Test
+    public void testActivatingAgainReopensSegments() throws Exception {
+        File dir = tempDir();
+        ShardedFileAppender appender = appender(dir, 2);
+        appender.doAppend(new LoggingEvent(Logger.class.getName(), logger, Level.INFO, "0:0", null));
+        appender.activateOptions();
+        Assert.assertEquals("Old segments should be released", 2, appender.getSegmentFiles().size());
+        appender.doAppend(new LoggingEvent(Logger.class.getName(), logger, Level.INFO, "0:1", null));
+        appender.close();
+
+        List<File> segments = ShardedFileAppender.findSegments(new File(dir, "api.log").getPath());
+        Assert.assertEquals("Wrong number of segments", 2, segments.size());
+        Assert.assertEquals("Events were lost", 2, readSegments(segments));
+    }
+
+    @Test
+    public void testEventsForAClosedSegmentAreReported() throws Exception {
+        File dir = tempDir();
+        final ShardedFileAppender appender = appender(dir, 1);
+        // closes the appender after the event got past the closed check, as a concurrent close would
+        appender.setLayout(new PatternLayout("%m%n") {
+            public String format(LoggingEvent event) {
+                appender.close();
+                return super.format(event);
+            }
+        });
+        final List<String> errors = new ArrayList<String>();
+        appender.setErrorHandler(new OnlyOnceErrorHandler() {
+            public void error(String message, Exception e, int errorCode) {
+                errors.add(message);
+            }
+        });
+        appender.doAppend(new LoggingEvent(Logger.class.getName(), logger, Level.INFO, "0:0", null));
+
+        Assert.assertEquals("The event should be counted", 1, appender.getDroppedCount());
+        Assert.assertEquals("The event should be reported", 1, errors.size());
+        Assert.assertTrue(errors.get(0), errors.get(0).contains("api.log.shard-0"));
+        for (File segment : appender.getSegmentFiles()) {
+            segment.deleteOnExit();
+        }
+    }
+
+    @Test
+    public void testOnlyTheV1LayoutFormatsConcurrently() {
+        Assert.assertTrue(UnsynchronizedAppenderSkeleton.isConcurrentLayout(new JSONEventLayoutV1()));
+        Assert.assertFalse("Subclasses may not be thread-safe",
+                UnsynchronizedAppenderSkeleton.isConcurrentLayout(new JSONEventLayoutV1() {}));
+        Assert.assertFalse(UnsynchronizedAppenderSkeleton.isConcurrentLayout(new PatternLayout()));
+        Assert.assertFalse(UnsynchronizedAppenderSkeleton.isConcurrentLayout(null));
+    }
+}
@@ -0,0 +1,311 @@
+package net.logstash.log4j.appender;
+
+import net.logstash.log4j.JSONEventLayoutV1;
+import org.apache.log4j.Appender;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logs from thousands of virtual threads at once, run in its own JVM by
+ * {@link VirtualThreadStressTest}. Each scenario is recorded with Flight Recorder
+ * and the jdk.VirtualThreadPinned events it produced are counted.
+ *
+ * <pre>
+ * VirtualThreadStress &lt;directory&gt; &lt;threads&gt; &lt;events per thread&gt;
+ * </pre>
+ *
+ * Prints the number of processors, then one line per scenario in the form
+ * {@code name: written/expected events in ms ms, n events/s, n pinned}, and exits
+ * with 2 if events went missing. Every scenario runs once to warm up before it is
+ * measured. Virtual threads and Flight Recorder are looked up reflectively so this
+ * builds on the same JDK as the rest of the module.
+ *
+ * JDK 21 only records a pinned virtual thread when it parks, not when it blocks
+ * to enter a monitor, so a scenario can only show pinning inside an appender.
+ */
+public class VirtualThreadStress {
+
+    public static final String UNSUPPORTED = "Virtual threads are not available";
+    public static final String PROCESSORS = "processors: ";
+
+    static final String SHARDED = "sharded";
+    static final String RING = "ring";
+    static final String LOGGERS = "loggers";
+    static final String PARKING = "parking";
+
+    /**
+     * Non-additive loggers sharing one appender in the loggers scenario.
+     */
+    static final int LOGGERS_SHARING = 8;
+
+    private static final String FQCN = Logger.class.getName();
+    private static final Logger LOGGER = Logger.getLogger("stress");
+
+    interface Scenario {
+        Appender open(File dir, String run);
+
+        void log(Appender appender, int thread, int event);
+
+        void close(Appender appender);
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(args[0]);
+        int threads = Integer.parseInt(args[1]);
+        int events = Integer.parseInt(args[2]);
+        if (newVirtualThreadExecutor() == null) {
+            System.out.println(UNSUPPORTED);
+            return;
+        }
+        System.out.println(PROCESSORS + Runtime.getRuntime().availableProcessors());
+        // Flight Recorder starts up with the first recording, keep that out of the measurements
+        PinnedRecording.start().stop(new File(dir, "startup.jfr"));
+        boolean complete = true;
+
+        complete &= measure(SHARDED, dir, threads, events, new Scenario() {
+            public Appender open(File dir, String run) {
+                return activate(new ShardedFileAppender(), new File(dir, run + ".log"));
+            }
+
+            public void log(Appender appender, int thread, int event) {
+                appender.doAppend(event(thread, event));
+            }
+
+            public void close(Appender appender) {
+                appender.close();
+            }
+        });
+
+        complete &= measure(RING, dir, threads, events, new Scenario() {
+            public Appender open(File dir, String run) {
+                return activate(new RingBufferFileAppender(), new File(dir, run + ".log"));
+            }
+
+            public void log(Appender appender, int thread, int event) {
+                appender.doAppend(event(thread, event));
+            }
+
+            public void close(Appender appender) {
+                appender.close();
+            }
+        });
+
+        // one segment shared by several loggers: threads hold different category
+        // monitors while they meet at the segment
+        complete &= measure(LOGGERS, dir, threads, events, new Scenario() {
+            final Logger[] loggers = new Logger[LOGGERS_SHARING];
+
+            public Appender open(File dir, String run) {
+                ShardedFileAppender appender = new ShardedFileAppender();
+                appender.setStripes(1);
+                activate(appender, new File(dir, run + ".log"));
+                for (int i = 0; i < loggers.length; i++) {
+                    loggers[i] = Logger.getLogger("stress." + i);
+                    loggers[i].setAdditivity(false);
+                    loggers[i].addAppender(appender);
+                }
+                return appender;
+            }
+
+            public void log(Appender appender, int thread, int event) {
+                loggers[thread % loggers.length].info(thread + ":" + event);
+            }
+
+            public void close(Appender appender) {
+                for (Logger logger : loggers) {
+                    logger.removeAppender(appender);
+                }
+                appender.close();
+            }
+        });
+
+        // the control: an appender that parks under its monitor has to show up as pinned
+        complete &= measure(PARKING, dir, threads, 1, new Scenario() {
+            public Appender open(File dir, String run) {
+                return new ParkingAppender();
+            }
+
+            public void log(Appender appender, int thread, int event) {
+                appender.doAppend(event(thread, event));
+            }
+
+            public void close(Appender appender) {
+                appender.close();
+            }
+        });
+
+        System.exit(complete ? 0 : 2);
+    }
+
+    private static LoggingEvent event(int thread, int event) {
+        return new LoggingEvent(FQCN, LOGGER, Level.INFO, thread + ":" + event, null);
+    }
+
+    private static <A extends UnsynchronizedAppenderSkeleton> A activate(A appender, File file) {
+        appender.setName(file.getName());
+        appender.setLayout(new JSONEventLayoutV1(false));
+        if (appender instanceof ShardedFileAppender) {
+            ((ShardedFileAppender) appender).setFile(file.getPath());
+            ((ShardedFileAppender) appender).setAppend(false);
+            ((ShardedFileAppender) appender).setImmediateFlush(false);
+        } else {
+            ((RingBufferFileAppender) appender).setFile(file.getPath());
+            ((RingBufferFileAppender) appender).setAppend(false);
+        }
+        appender.activateOptions();
+        return appender;
+    }
+
+    private static boolean measure(String name, File dir, int threads, int events, Scenario scenario) throws Exception {
+        Appender warmup = scenario.open(dir, name + "-warmup");
+        run(scenario, warmup, threads, events);
+        written(warmup);
+
+        Appender appender = scenario.open(dir, name);
+        PinnedRecording pinned = PinnedRecording.start();
+        long millis = run(scenario, appender, threads, events);
+        long pinnedCount = pinned.stop(new File(dir, name + ".jfr"));
+
+        long written = written(appender);
+        long expected = (long) threads * events;
+        System.out.println(name + ": " + written + "/" + expected + " events in " + millis + " ms, "
+                + (written * 1000 / millis) + " events/s, " + pinnedCount + " pinned");
+        return written == expected;
+    }
+
+    private static long run(final Scenario scenario, final Appender appender, int threads, final int events) throws Exception {
+        ExecutorService executor = newVirtualThreadExecutor();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            executor.execute(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < events; i++) {
+                        scenario.log(appender, thread, i);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.MINUTES);
+        scenario.close(appender);
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static long written(Appender appender) throws IOException {
+        if (appender instanceof ParkingAppender) {
+            return ((ParkingAppender) appender).appended;
+        }
+        List<File> files = new ArrayList<File>();
+        if (appender instanceof ShardedFileAppender) {
+            files.addAll(((ShardedFileAppender) appender).getSegmentFiles());
+        } else {
+            files.add(new File(((RingBufferFileAppender) appender).getFile()));
+        }
+        long written = 0;
+        for (File file : files) {
+            written += countLines(file);
+            file.deleteOnExit();
+        }
+        return written;
+    }
+
+    private static long countLines(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            long count = 0;
+            while (reader.readLine() != null) {
+                count++;
+            }
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            // before Java 21, or without --enable-preview on 19 and 20
+            return null;
+        }
+    }
+
+    /**
+     * Waits inside the synchronized {@link AppenderSkeleton#doAppend(LoggingEvent)},
+     * as an appender blocking on a full queue or a slow socket would.
+     */
+    static final class ParkingAppender extends AppenderSkeleton {
+        long appended;
+
+        protected void append(LoggingEvent event) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            appended++;
+        }
+
+        public void close() {
+            closed = true;
+        }
+
+        public boolean requiresLayout() {
+            return false;
+        }
+    }
+
+    /**
+     * A Flight Recorder recording of jdk.VirtualThreadPinned events, however short.
+     */
+    static final class PinnedRecording {
+        private final Class<?> recordingClass;
+        private final Object recording;
+
+        private PinnedRecording(Class<?> recordingClass, Object recording) {
+            this.recordingClass = recordingClass;
+            this.recording = recording;
+        }
+
+        static PinnedRecording start() throws Exception {
+            Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+            Object recording = recordingClass.getConstructor().newInstance();
+            Object settings = recordingClass.getMethod("enable", String.class).invoke(recording, "jdk.VirtualThreadPinned");
+            Method with = Class.forName("jdk.jfr.EventSettings").getMethod("with", String.class, String.class);
+            with.invoke(settings, "threshold", "0 ms");
+            with.invoke(settings, "stackTrace", "true");
+            recordingClass.getMethod("start").invoke(recording);
+            return new PinnedRecording(recordingClass, recording);
+        }
+
+        /**
+         * @return how many pinned events were recorded; the first one is printed
+         */
+        long stop(File file) throws Exception {
+            recordingClass.getMethod("stop").invoke(recording);
+            Path path = file.toPath();
+            recordingClass.getMethod("dump", Path.class).invoke(recording, path);
+            recordingClass.getMethod("close").invoke(recording);
+            file.deleteOnExit();
+            List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+                    .getMethod("readAllEvents", Path.class).invoke(null, path);
+            if (!events.isEmpty()) {
+                System.err.println(events.get(0));
+            }
+            return events.size();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package net.logstash.log4j.appender;
+
+import junit.framework.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs {@link VirtualThreadStress} in a JVM of its own, once on a single carrier
+ * thread and once on one carrier per processor, but no fewer than
+ * {@link #SCALING_PROCESSORS} so that threads meet at the appenders even on a small
+ * machine. Throughput is only compared on a machine with that many processors.
+ *
+ * It needs Java 21; when the build runs on something older, point it at a newer
+ * JVM with -Dstress.java=/path/to/jdk-21/bin/java, otherwise the test is skipped.
+ */
+public class VirtualThreadStressTest {
+
+    static final int THREADS = 2000;
+    static final int EVENTS = 50;
+
+    /**
+     * Processors needed before throughput is expected to grow with the carriers.
+     */
+    static final int SCALING_PROCESSORS = 4;
+    /**
+     * How much faster the sharded appender has to be on all carriers than on one.
+     */
+    static final double MIN_SCALING = 1.5;
+
+    private static final Pattern RESULT = Pattern.compile("^(\\w+): (\\d+)/(\\d+) events in (\\d+) ms, (\\d+) events/s, (\\d+) pinned$",
+            Pattern.MULTILINE);
+
+    /**
+     * What one run printed for each scenario.
+     */
+    static final class Run {
+        final String output;
+        int processors;
+        final Map<String, Long> eventsPerSecond = new HashMap<String, Long>();
+        final Map<String, Long> pinned = new HashMap<String, Long>();
+
+        Run(String output) {
+            this.output = output;
+        }
+
+        long pinned(String scenario) {
+            Long count = pinned.get(scenario);
+            Assert.assertNotNull("No result for " + scenario + ":\n" + output, count);
+            return count;
+        }
+    }
+
+    static Run stress(String parallelism) throws Exception {
+        String java = System.getProperty("stress.java",
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        File dir = File.createTempFile("stress", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+
+        List<String> command = new ArrayList<String>();
+        command.add(java);
+        command.add("-Djdk.virtualThreadScheduler.parallelism=" + parallelism);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(VirtualThreadStress.class.getName());
+        command.add(dir.getPath());
+        command.add(String.valueOf(THREADS));
+        command.add(String.valueOf(EVENTS));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+        StringBuilder output = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            output.append(line).append('\n');
+        }
+        reader.close();
+        int exit = process.waitFor();
+
+        Assume.assumeTrue(output.indexOf(VirtualThreadStress.UNSUPPORTED) < 0);
+        Assert.assertEquals("Stress run failed:\n" + output, 0, exit);
+
+        Run run = new Run(output.toString());
+        Matcher processors = Pattern.compile("^" + VirtualThreadStress.PROCESSORS + "(\\d+)$", Pattern.MULTILINE).matcher(run.output);
+        Assert.assertTrue("No processor count:\n" + run.output, processors.find());
+        run.processors = Integer.parseInt(processors.group(1));
+        Matcher result = RESULT.matcher(run.output);
+        while (result.find()) {
+            run.eventsPerSecond.put(result.group(1), Long.parseLong(result.group(5)));
+            run.pinned.put(result.group(1), Long.parseLong(result.group(6)));
+        }
+        return run;
+    }
+
+    @Test
+    public void testNoCarrierPinning() throws Exception {
+        Run oneCarrier = stress("1");
+        int carriers = Math.max(SCALING_PROCESSORS, Runtime.getRuntime().availableProcessors());
+        Run allCarriers = stress(String.valueOf(carriers));
+        System.out.print("[VirtualThreadStressTest] one carrier\n" + oneCarrier.output
+                + "[VirtualThreadStressTest] " + carriers + " carriers\n" + allCarriers.output);
+
+        for (Run run : new Run[]{oneCarrier, allCarriers}) {
+            Assert.assertTrue("The parking appender should have pinned its carrier, is the recording working?\n" + run.output,
+                    run.pinned(VirtualThreadStress.PARKING) > 0);
+            for (String scenario : new String[]{VirtualThreadStress.SHARDED, VirtualThreadStress.RING, VirtualThreadStress.LOGGERS}) {
+                Assert.assertEquals("Carrier threads were pinned in " + scenario + ":\n" + run.output, 0, run.pinned(scenario));
+            }
+        }
+
+        if (allCarriers.processors >= SCALING_PROCESSORS) {
+            long one = oneCarrier.eventsPerSecond.get(VirtualThreadStress.SHARDED);
+            long all = allCarriers.eventsPerSecond.get(VirtualThreadStress.SHARDED);
+            Assert.assertTrue("Sharded appender did not scale with " + allCarriers.processors + " carriers: "
+                    + one + " events/s on one, " + all + " on all", all >= one * MIN_SCALING);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package net.logstash.log4j.fields;
+
+import junit.framework.Assert;
+import net.logstash.log4j.core.FieldWriter;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FieldProvidersTest {
+
+    static class CountingProvider implements FieldProvider {
+        final AtomicInteger calls = new AtomicInteger();
+        final String name;
+        final Scope scope;
+        final long intervalMillis;
+
+        CountingProvider(String name, Scope scope) {
+            this(name, scope, 60000);
+        }
+
+        CountingProvider(String name, Scope scope, long intervalMillis) {
+            this.name = name;
+            this.scope = scope;
+            this.intervalMillis = intervalMillis;
+        }
+
+        public String getFieldName() { return name; }
+        public Scope getScope() { return scope; }
+        public long getIntervalMillis() { return intervalMillis; }
+        public Object getValue(LoggingEvent loggingEvent) { return calls.incrementAndGet(); }
+    }
+
+    static class FailingProvider extends CountingProvider {
+        FailingProvider() {
+            super("failing", Scope.EVENT);
+        }
+
+        public Object getValue(LoggingEvent loggingEvent) {
+            calls.incrementAndGet();
+            throw new IllegalStateException("no value");
+        }
+    }
+
+    static class RecordingWriter implements FieldWriter {
+        final Map<String, String> fields = new HashMap<String, String>();
+
+        public void field(String name, Object value) {
+            if (value != null) {
+                fields.put(name, String.valueOf(value));
+            }
+        }
+
+        public void rawField(String name, CharSequence json) {
+            fields.put(name, json.toString());
+        }
+    }
+
+    @Test
+    public void testScopes() {
+        CountingProvider constant = new CountingProvider("constant", FieldProvider.Scope.CONSTANT);
+        CountingProvider interval = new CountingProvider("interval", FieldProvider.Scope.INTERVAL);
+        CountingProvider perEvent = new CountingProvider("per_event", FieldProvider.Scope.EVENT);
+        List<FieldProvider> providers = new ArrayList<FieldProvider>();
+        providers.add(constant);
+        providers.add(interval);
+        providers.add(perEvent);
+        FieldProviders fieldProviders = new FieldProviders(providers);
+
+        RecordingWriter event = new RecordingWriter();
+        for (int i = 0; i < 5; i++) {
+            fieldProviders.addFields(event, null);
+        }
+        Assert.assertEquals("Constant field was recomputed", 1, constant.calls.get());
+        Assert.assertEquals("Per-event field was not computed per event", 5, perEvent.calls.get());
+        Assert.assertEquals("Constant field is not encoded", "1", event.fields.get("constant"));
+
+        Assert.assertEquals("Interval field was not computed up front", "1", event.fields.get("interval"));
+
+        fieldProviders.refresh();
+        fieldProviders.stop();
+        Assert.assertEquals("Interval field was not refreshed", 2, interval.calls.get());
+        fieldProviders.addFields(event, null);
+        Assert.assertEquals("Event does not carry the refreshed value", "2", event.fields.get("interval"));
+    }
+
+    @Test
+    public void testFailingEventProviderIsSkipped() {
+        FailingProvider failing = new FailingProvider();
+        CountingProvider perEvent = new CountingProvider("per_event", FieldProvider.Scope.EVENT);
+        List<FieldProvider> providers = new ArrayList<FieldProvider>();
+        providers.add(failing);
+        providers.add(perEvent);
+        FieldProviders fieldProviders = new FieldProviders(providers);
+
+        RecordingWriter event = new RecordingWriter();
+        fieldProviders.addFields(event, null);
+        fieldProviders.addFields(event, null);
+        Assert.assertEquals(2, failing.calls.get());
+        Assert.assertFalse("Failed field was written", event.fields.containsKey("failing"));
+        Assert.assertEquals("Fields after the failing one were dropped", "2", event.fields.get("per_event"));
+    }
+
+    @Test
+    public void testNonPositiveIntervalIsComputedOnce() {
+        CountingProvider interval = new CountingProvider("interval", FieldProvider.Scope.INTERVAL, 0);
+        FieldProviders fieldProviders = new FieldProviders(new ArrayList<FieldProvider>(Arrays.asList(interval)));
+
+        RecordingWriter event = new RecordingWriter();
+        fieldProviders.addFields(event, null);
+        fieldProviders.refresh();
+        Assert.assertEquals("Field with no interval was refreshed", 1, interval.calls.get());
+        Assert.assertEquals("1", event.fields.get("interval"));
+    }
+
+    @Test
+    public void testEncodedValueIsCopiedVerbatim() {
+        Assert.assertEquals("\"say \\\"hi\\\"\"", new EncodedValue("say \"hi\"").toJSONString());
+        Map<String, Object> nested = new LinkedHashMap<String, Object>();
+        nested.put("used", 42L);
+        nested.put("tags", Arrays.asList("a", true));
+        Assert.assertEquals("{\"used\":42,\"tags\":[\"a\",true]}", new EncodedValue(nested).toJSONString());
+    }
+}
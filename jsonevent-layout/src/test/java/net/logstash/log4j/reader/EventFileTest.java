@@ -0,0 +1,119 @@
+package net.logstash.log4j.reader;
+
+import junit.framework.Assert;
+import net.logstash.log4j.JSONEventLayoutV0;
+import net.logstash.log4j.JSONEventLayoutV1;
+import org.apache.log4j.Layout;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+public class EventFileTest {
+    static final Logger logger = Logger.getLogger(EventFileTest.class);
+    static final long start = 1364844991207L;
+    static final Level[] levels = {Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR};
+
+    static String messageFor(int i) {
+        return "event " + i + " with \"quotes\", a tab\tand unicode é日☃";
+    }
+
+    static File writeEvents(Layout layout, int count) throws Exception {
+        File file = File.createTempFile("events", ".ndjson");
+        file.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> mdc = new HashMap<String, Object>();
+            mdc.put("request_id", String.valueOf(i));
+            Throwable throwable = i % 10 == 0 ? new IllegalStateException("broken " + i) : null;
+            LoggingEvent event = new LoggingEvent(EventFileTest.class.getName(), logger, start + i,
+                    levels[i % levels.length], messageFor(i), "main",
+                    throwable == null ? null : new org.apache.log4j.spi.ThrowableInformation(throwable),
+                    null, null, mdc);
+            writer.write(layout.format(event));
+        }
+        writer.close();
+        return file;
+    }
+
+    @Test
+    public void testCursorReadsV1Events() throws Exception {
+        File file = writeEvents(new JSONEventLayoutV1(false), 100);
+        EventFile events = new EventFile(file);
+        EventCursor event = events.cursor();
+
+        int i = 0;
+        while (event.next()) {
+            Assert.assertEquals("Timestamp is wrong", start + i, event.getTimestamp());
+            Assert.assertEquals("Version is wrong", 1, event.getLong(Field.VERSION, -1));
+            Assert.assertTrue("Level does not match", event.valueEquals(Field.LEVEL, levels[i % levels.length].toString()));
+            Assert.assertFalse("Level matches the wrong value", event.valueEquals(Field.LEVEL, "FATAL"));
+            Assert.assertEquals("Message is wrong", messageFor(i), event.getString(Field.MESSAGE));
+            Assert.assertTrue("Message does not match", event.valueEquals(Field.MESSAGE, messageFor(i)));
+            Assert.assertEquals("Nested mdc is wrong", String.valueOf(i), event.getString(Field.of("mdc", "request_id")));
+            if (i % 10 == 0) {
+                Assert.assertEquals("Exception class is wrong", "java.lang.IllegalStateException",
+                        event.getString(Field.of("exception", "exception_class")));
+            } else {
+                Assert.assertFalse("Event has an exception", event.has(Field.EXCEPTION));
+            }
+            i++;
+        }
+        events.close();
+        Assert.assertEquals("Events were lost", 100, i);
+    }
+
+    @Test
+    public void testCursorReadsV0Events() throws Exception {
+        File file = writeEvents(new JSONEventLayoutV0(false), 10);
+        EventFile events = new EventFile(file);
+        EventCursor event = events.cursor();
+
+        Assert.assertTrue(event.next());
+        Assert.assertEquals("Timestamp is wrong", start, event.getTimestamp());
+        Assert.assertEquals("Level is wrong", "DEBUG", event.getString(Field.V0_LEVEL));
+        Assert.assertEquals("Message is wrong", messageFor(0), event.getString(Field.V0_MESSAGE));
+        events.close();
+    }
+
+    @Test
+    public void testParallelReduceMatchesSequential() throws Exception {
+        File file = writeEvents(new JSONEventLayoutV1(false), 1000);
+        // tiny chunks so the file is split many times
+        EventFile events = new EventFile(file, 4096);
+        Assert.assertTrue("File was not split", events.getChunkCount() > 10);
+
+        EventReduction<long[]> errors = new EventReduction<long[]>() {
+            public long[] initial() {
+                return new long[2];
+            }
+
+            public void accumulate(long[] result, EventCursor event) {
+                result[0]++;
+                if (event.valueEquals(Field.LEVEL, "ERROR")) {
+                    result[1]++;
+                }
+            }
+
+            public long[] combine(long[] left, long[] right) {
+                return new long[]{left[0] + right[0], left[1] + right[1]};
+            }
+        };
+
+        long[] sequential = events.reduce(errors);
+        long[] parallel = events.reduce(errors, new ForkJoinPool(4));
+        events.close();
+
+        Assert.assertEquals("Sequential read lost events", 1000, sequential[0]);
+        Assert.assertEquals("Parallel read lost events", 1000, parallel[0]);
+        Assert.assertEquals("Error count is wrong", 250, parallel[1]);
+    }
+}
@@ -0,0 +1,160 @@
+package net.logstash.log4j.reader;
+
+import junit.framework.Assert;
+import net.logstash.log4j.JSONEventLayoutV1;
+import net.logstash.log4j.appender.ShardedFileAppender;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class EventMergerTest {
+
+    static File write(long... timestamps) throws Exception {
+        File file = File.createTempFile("merge", ".log");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        for (long timestamp : timestamps) {
+            String line = "{\"@version\":1,\"@timestamp\":\"" + JSONEventLayoutV1.dateFormat(timestamp)
+                    + "\",\"message\":\"" + file.getName() + " " + timestamp + "\"}\n";
+            out.write(line.getBytes("UTF-8"));
+        }
+        out.close();
+        return file;
+    }
+
+    @Test
+    public void testMergesByTimestamp() throws Exception {
+        List<File> inputs = new ArrayList<File>();
+        inputs.add(write(1000L, 4000L, 4000L, 9000L));
+        inputs.add(write());
+        inputs.add(write(2000L, 4000L, 5000L));
+        inputs.add(write(500L));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(8, EventMerger.merge(inputs, out));
+
+        String[] lines = out.toString("UTF-8").split("\n");
+        Assert.assertEquals(8, lines.length);
+        long previous = Long.MIN_VALUE;
+        for (String line : lines) {
+            long timestamp = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1, line.length() - 2));
+            Assert.assertTrue("Events are out of order: " + line, timestamp >= previous);
+            previous = timestamp;
+        }
+        Assert.assertTrue("Ties should keep input order", lines[3].contains(inputs.get(0).getName() + " 4000"));
+        Assert.assertTrue("Ties should keep input order", lines[5].contains(inputs.get(2).getName() + " 4000"));
+    }
+
+    /**
+     * The timestamps of merged events, taken from the end of their message.
+     */
+    static long[] timestamps(String merged) {
+        String[] lines = merged.split("\n");
+        long[] timestamps = new long[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            String message = (String) ((JSONObject) JSONValue.parse(lines[i])).get("message");
+            timestamps[i] = Long.parseLong(message.substring(message.lastIndexOf(' ') + 1));
+        }
+        return timestamps;
+    }
+
+    @Test
+    public void testReordersEventsWithinTheWindow() throws Exception {
+        List<File> inputs = new ArrayList<File>();
+        inputs.add(write(1000L, 1010L, 1005L, 3000L));
+        inputs.add(write(1007L, 2000L));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(6, EventMerger.merge(inputs, out, 100));
+        long[] merged = timestamps(out.toString("UTF-8"));
+        Assert.assertEquals(1005L, merged[1]);
+        Assert.assertEquals(1007L, merged[2]);
+        Assert.assertEquals(1010L, merged[3]);
+
+        // further out of order than the window allows
+        out = new ByteArrayOutputStream();
+        Assert.assertEquals(6, EventMerger.merge(inputs, out, 2));
+        merged = timestamps(out.toString("UTF-8"));
+        Assert.assertEquals(1007L, merged[1]);
+        Assert.assertEquals(1005L, merged[2]);
+    }
+
+    /**
+     * Two threads on one stripe: the first takes its timestamp, then the second
+     * gets to the segment first with two later events.
+     */
+    @Test
+    public void testMergesThreadsSharingAStripe() throws Exception {
+        File dir = File.createTempFile("merge", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        final ShardedFileAppender appender = new ShardedFileAppender();
+        appender.setName("merge");
+        appender.setFile(new File(dir, "api.log").getPath());
+        appender.setStripes(1);
+        appender.setLayout(new JSONEventLayoutV1(false));
+        appender.activateOptions();
+
+        final Logger logger = Logger.getLogger(EventMergerTest.class);
+        final CountDownLatch stamped = new CountDownLatch(1);
+        final CountDownLatch overtaken = new CountDownLatch(1);
+        Thread slow = new Thread(new Runnable() {
+            public void run() {
+                LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, 1000L, Level.INFO, "slow 1000",
+                        Thread.currentThread().getName(), null, null, null, null);
+                stamped.countDown();
+                try {
+                    overtaken.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                appender.doAppend(event);
+            }
+        }, "slow");
+        Thread fast = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    stamped.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long timestamp : new long[]{1005L, 1010L}) {
+                    appender.doAppend(new LoggingEvent(Logger.class.getName(), logger, timestamp, Level.INFO, "fast " + timestamp,
+                            Thread.currentThread().getName(), null, null, null, null));
+                }
+                overtaken.countDown();
+            }
+        }, "fast");
+        slow.start();
+        fast.start();
+        slow.join();
+        fast.join();
+        appender.close();
+
+        List<File> segments = appender.getSegmentFiles();
+        Assert.assertEquals(1, segments.size());
+        segments.get(0).deleteOnExit();
+        File output = new File(dir, "merged.log");
+        output.deleteOnExit();
+        Assert.assertEquals(3, EventMerger.mergeSegments(new File(dir, "api.log").getPath(), output));
+
+        ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        EventMerger.merge(segments, merged);
+        long[] timestamps = timestamps(merged.toString("UTF-8"));
+        Assert.assertEquals(1000L, timestamps[0]);
+        Assert.assertEquals(1005L, timestamps[1]);
+        Assert.assertEquals(1010L, timestamps[2]);
+    }
+}
@@ -0,0 +1,52 @@
+package net.logstash.log4j.replay;
+
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes a corpus of {@link EventDescriptor}s, one JSON object per line.
+ */
+public class Corpus {
+
+    private Corpus() {
+    }
+
+    public static void write(List<EventDescriptor> corpus, File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for (EventDescriptor descriptor : corpus) {
+                writer.write(descriptor.toJSON().toString());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    public static List<EventDescriptor> read(File file) throws IOException {
+        List<EventDescriptor> corpus = new ArrayList<EventDescriptor>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() > 0) {
+                    corpus.add(EventDescriptor.fromJSON((JSONObject) JSONValue.parse(line)));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return corpus;
+    }
+}
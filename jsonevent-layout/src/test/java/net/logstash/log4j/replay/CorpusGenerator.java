@@ -0,0 +1,111 @@
+package net.logstash.log4j.replay;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a synthetic corpus that looks like production traffic rather than
+ * the same short message over and over: long and unicode messages, wide and
+ * nested mdcs, and deep exception chains, in configurable proportions.
+ */
+public class CorpusGenerator {
+
+    private static final String[] LEVELS = {"TRACE", "DEBUG", "INFO", "WARN", "ERROR", "FATAL"};
+    // cumulative share of each level, mostly INFO and DEBUG
+    private static final double[] LEVEL_WEIGHTS = {0.05, 0.30, 0.85, 0.95, 0.995, 1.0};
+    private static final String ASCII = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ,.:/\"\\";
+    private static final String UNICODE = "\u00e9\u00fc\u00df\u00f8\u00e7\u00f1\u65e5\u672c\u8a9e\u4e2d\u6587\ud55c\uad6d\uc5b4\u0395\u03bb\u03bb\u03b7\u03bd\u03b9\u03ba\u03ac\u043a\u0438\u0440\u0438\u043b\u043b\u0438\u0446\u0430\u2603\u00a0";
+
+    private long seed = 42;
+    private int meanMessageLength = 120;
+    private int maxMessageLength = 4000;
+    private double unicodeRatio = 0.1;
+    private int meanMdcKeys = 8;
+    private int maxMdcKeys = 20;
+    private double nestedMdcRatio = 0.05;
+    private double exceptionRatio = 0.02;
+    private int maxExceptionDepth = 4;
+    private int maxStackDepth = 60;
+    private int loggerCount = 50;
+    private int threadCount = 16;
+
+    public List<EventDescriptor> generate(int count) {
+        Random random = new Random(seed);
+        List<EventDescriptor> corpus = new ArrayList<EventDescriptor>(count);
+        for (int i = 0; i < count; i++) {
+            EventDescriptor descriptor = new EventDescriptor();
+            descriptor.level = pickLevel(random);
+            descriptor.loggerName = "com.example.service.module" + random.nextInt(loggerCount) + ".Component";
+            descriptor.threadName = "worker-" + random.nextInt(threadCount);
+            descriptor.message = text(random, skewed(random, meanMessageLength, maxMessageLength));
+            descriptor.ndc = random.nextDouble() < 0.1 ? "request-" + random.nextInt(100000) : null;
+            descriptor.mdc = mdc(random);
+            if (random.nextDouble() < exceptionRatio) {
+                descriptor.exceptionDepth = 1 + random.nextInt(maxExceptionDepth);
+                descriptor.stackDepth = 1 + random.nextInt(maxStackDepth);
+                descriptor.exceptionMessage = text(random, 1 + random.nextInt(80));
+            }
+            corpus.add(descriptor);
+        }
+        return corpus;
+    }
+
+    private String pickLevel(Random random) {
+        double roll = random.nextDouble();
+        for (int i = 0; i < LEVEL_WEIGHTS.length; i++) {
+            if (roll < LEVEL_WEIGHTS[i]) {
+                return LEVELS[i];
+            }
+        }
+        return LEVELS[LEVELS.length - 1];
+    }
+
+    /**
+     * Exponentially distributed around the mean, so there is a long tail of big values.
+     */
+    private static int skewed(Random random, int mean, int max) {
+        int value = (int) (-Math.log(1 - random.nextDouble()) * mean);
+        return Math.max(1, Math.min(value, max));
+    }
+
+    private String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            String alphabet = random.nextDouble() < unicodeRatio ? UNICODE : ASCII;
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+
+    private Map<String, Object> mdc(Random random) {
+        int keys = skewed(random, meanMdcKeys, maxMdcKeys);
+        Map<String, Object> mdc = new HashMap<String, Object>();
+        for (int k = 0; k < keys; k++) {
+            if (random.nextDouble() < nestedMdcRatio) {
+                Map<String, Object> nested = new HashMap<String, Object>();
+                nested.put("id", String.valueOf(random.nextInt(1000000)));
+                nested.put("name", text(random, 1 + random.nextInt(30)));
+                mdc.put("nested_" + k, nested);
+            } else {
+                mdc.put("key_" + k, text(random, 1 + random.nextInt(40)));
+            }
+        }
+        return mdc;
+    }
+
+    public CorpusGenerator setSeed(long seed) { this.seed = seed; return this; }
+    public CorpusGenerator setMeanMessageLength(int meanMessageLength) { this.meanMessageLength = meanMessageLength; return this; }
+    public CorpusGenerator setMaxMessageLength(int maxMessageLength) { this.maxMessageLength = maxMessageLength; return this; }
+    public CorpusGenerator setUnicodeRatio(double unicodeRatio) { this.unicodeRatio = unicodeRatio; return this; }
+    public CorpusGenerator setMeanMdcKeys(int meanMdcKeys) { this.meanMdcKeys = meanMdcKeys; return this; }
+    public CorpusGenerator setMaxMdcKeys(int maxMdcKeys) { this.maxMdcKeys = maxMdcKeys; return this; }
+    public CorpusGenerator setNestedMdcRatio(double nestedMdcRatio) { this.nestedMdcRatio = nestedMdcRatio; return this; }
+    public CorpusGenerator setExceptionRatio(double exceptionRatio) { this.exceptionRatio = exceptionRatio; return this; }
+    public CorpusGenerator setMaxExceptionDepth(int maxExceptionDepth) { this.maxExceptionDepth = maxExceptionDepth; return this; }
+    public CorpusGenerator setMaxStackDepth(int maxStackDepth) { this.maxStackDepth = maxStackDepth; return this; }
+    public CorpusGenerator setLoggerCount(int loggerCount) { this.loggerCount = loggerCount; return this; }
+    public CorpusGenerator setThreadCount(int threadCount) { this.threadCount = threadCount; return this; }
+}
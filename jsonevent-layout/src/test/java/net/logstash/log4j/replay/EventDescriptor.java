@@ -0,0 +1,87 @@
+package net.logstash.log4j.replay;
+
+import net.minidev.json.JSONObject;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+
+import java.util.Map;
+
+/**
+ * Everything needed to rebuild a recorded {@link LoggingEvent}.
+ */
+public class EventDescriptor {
+
+    public String level;
+    public String loggerName;
+    public String threadName;
+    public String message;
+    public String ndc;
+    public Map<String, Object> mdc;
+    /** number of exceptions in the cause chain, 0 for no exception */
+    public int exceptionDepth;
+    /** frames per exception in the cause chain */
+    public int stackDepth;
+    public String exceptionMessage;
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("level", level);
+        json.put("logger_name", loggerName);
+        json.put("thread_name", threadName);
+        json.put("message", message);
+        json.put("ndc", ndc);
+        json.put("mdc", mdc);
+        json.put("exception_depth", exceptionDepth);
+        json.put("stack_depth", stackDepth);
+        json.put("exception_message", exceptionMessage);
+        return json;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static EventDescriptor fromJSON(JSONObject json) {
+        EventDescriptor descriptor = new EventDescriptor();
+        descriptor.level = (String) json.get("level");
+        descriptor.loggerName = (String) json.get("logger_name");
+        descriptor.threadName = (String) json.get("thread_name");
+        descriptor.message = (String) json.get("message");
+        descriptor.ndc = (String) json.get("ndc");
+        descriptor.mdc = (Map<String, Object>) json.get("mdc");
+        descriptor.exceptionDepth = ((Number) json.get("exception_depth")).intValue();
+        descriptor.stackDepth = ((Number) json.get("stack_depth")).intValue();
+        descriptor.exceptionMessage = (String) json.get("exception_message");
+        return descriptor;
+    }
+
+    /**
+     * Build the event, with the exception chain made up from synthetic frames.
+     */
+    public LoggingEvent toLoggingEvent(long timestamp) {
+        ThrowableInformation throwableInformation = null;
+        if (exceptionDepth > 0) {
+            throwableInformation = new ThrowableInformation(buildThrowable(exceptionDepth));
+        }
+        return new LoggingEvent(Logger.class.getName(),
+                Logger.getLogger(loggerName),
+                timestamp,
+                Level.toLevel(level),
+                message,
+                threadName,
+                throwableInformation,
+                ndc,
+                null,
+                mdc);
+    }
+
+    private Throwable buildThrowable(int depth) {
+        Throwable cause = depth > 1 ? buildThrowable(depth - 1) : null;
+        RuntimeException throwable = new RuntimeException(exceptionMessage + " (" + depth + ")", cause);
+        StackTraceElement[] frames = new StackTraceElement[stackDepth];
+        for (int i = 0; i < stackDepth; i++) {
+            frames[i] = new StackTraceElement(loggerName + "$Frame" + i, "call" + i, "Frame" + i + ".java", 10 + i);
+        }
+        throwable.setStackTrace(frames);
+        return throwable;
+    }
+}
@@ -0,0 +1,261 @@
+package net.logstash.log4j.replay;
+
+import net.logstash.log4j.JSONEventLayoutV0;
+import net.logstash.log4j.JSONEventLayoutV1;
+import net.logstash.log4j.appender.UnsynchronizedAppenderSkeleton;
+import org.apache.log4j.Appender;
+import org.apache.log4j.Layout;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a corpus of events through a layout or an appender from several threads,
+ * either as fast as possible or at a fixed rate, and reports throughput, latency
+ * percentiles and allocation.
+ *
+ * Events are rebuilt from their descriptors before the timed section, so only the
+ * layout or appender is measured.
+ *
+ * <pre>
+ * java net.logstash.log4j.replay.ReplayHarness layout=v1 threads=4 events=1000000 rate=0 corpus=events.ndjson
+ * java net.logstash.log4j.replay.ReplayHarness generate=events.ndjson events=100000
+ * </pre>
+ */
+public class ReplayHarness {
+
+    private final List<EventDescriptor> corpus;
+    private int threads = 1;
+    private long eventsPerThread = 100000;
+    private long ratePerThread = 0;
+    private long warmupEventsPerThread = 10000;
+
+    public ReplayHarness(List<EventDescriptor> corpus) {
+        this.corpus = corpus;
+    }
+
+    public ReplayHarness setThreads(int threads) { this.threads = threads; return this; }
+    public ReplayHarness setEventsPerThread(long eventsPerThread) { this.eventsPerThread = eventsPerThread; return this; }
+    public ReplayHarness setWarmupEventsPerThread(long warmupEventsPerThread) { this.warmupEventsPerThread = warmupEventsPerThread; return this; }
+
+    /**
+     * @param ratePerThread events per second per thread, 0 to run flat out
+     */
+    public ReplayHarness setRatePerThread(long ratePerThread) { this.ratePerThread = ratePerThread; return this; }
+
+    public ReplayReport replay(final Layout layout) throws InterruptedException {
+        if (UnsynchronizedAppenderSkeleton.isConcurrentLayout(layout)) {
+            // formats concurrently, so measure it without a lock
+            return run(layout.getClass().getSimpleName(), new Target() {
+                public long send(LoggingEvent event) {
+                    return utf8Length(layout.format(event));
+                }
+            });
+        }
+        // other layouts are not thread-safe, appenders serialize them, so do the same here
+        return run(layout.getClass().getSimpleName(), new Target() {
+            public long send(LoggingEvent event) {
+                synchronized (layout) {
+                    return utf8Length(layout.format(event));
+                }
+            }
+        });
+    }
+
+    public ReplayReport replay(final Appender appender) throws InterruptedException {
+        return run(appender.getClass().getSimpleName(), new Target() {
+            public long send(LoggingEvent event) {
+                appender.doAppend(event);
+                return 0;
+            }
+        });
+    }
+
+    private interface Target {
+        /**
+         * @return the number of bytes produced once encoded as UTF-8, if known
+         */
+        long send(LoggingEvent event);
+    }
+
+    private ReplayReport run(String name, final Target target) throws InterruptedException {
+        final LoggingEvent[] events = new LoggingEvent[corpus.size()];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < events.length; i++) {
+            events[i] = corpus.get(i).toLoggingEvent(now + i);
+            // force the lazily computed parts so they are not charged to the first layout
+            events[i].getRenderedMessage();
+            events[i].getThrowableStrRep();
+        }
+
+        for (int i = 0; i < warmupEventsPerThread; i++) {
+            target.send(events[i % events.length]);
+        }
+
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final long[][] latencies = new long[threads][];
+        final AtomicLong outputBytes = new AtomicLong();
+        final AtomicLong allocatedBytes = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long intervalNanos = ratePerThread > 0 ? 1000000000L / ratePerThread : 0;
+
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    long[] threadLatencies = new long[(int) eventsPerThread];
+                    long bytes = 0;
+                    long allocatedBefore = allocatedBytes(threadBean);
+                    try {
+                        start.await();
+                        long next = System.nanoTime();
+                        int offset = thread * (events.length / threads);
+                        for (int i = 0; i < eventsPerThread; i++) {
+                            long begin;
+                            if (intervalNanos > 0) {
+                                // time from the scheduled send, so a stall is charged to every event it delays
+                                next += intervalNanos;
+                                while (System.nanoTime() < next) {
+                                    LockSupport.parkNanos(next - System.nanoTime());
+                                }
+                                begin = next;
+                            } else {
+                                begin = System.nanoTime();
+                            }
+                            bytes += target.send(events[(offset + i) % events.length]);
+                            threadLatencies[i] = System.nanoTime() - begin;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        long allocatedAfter = allocatedBytes(threadBean);
+                        if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+                            allocatedBytes.addAndGet(allocatedAfter - allocatedBefore);
+                        } else {
+                            allocatedBytes.set(Long.MIN_VALUE);
+                        }
+                        outputBytes.addAndGet(bytes);
+                        latencies[thread] = threadLatencies;
+                        done.countDown();
+                    }
+                }
+            }, "replay-" + t);
+            worker.start();
+        }
+
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+
+        long[] merged = new long[(int) (threads * eventsPerThread)];
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(latencies[t], 0, merged, (int) (t * eventsPerThread), (int) eventsPerThread);
+        }
+        return new ReplayReport(name, threads, elapsed, merged, outputBytes.get(),
+                allocatedBytes.get() < 0 ? -1 : allocatedBytes.get(),
+                gcCount() - gcCountBefore, gcMillis() - gcMillisBefore);
+    }
+
+    /**
+     * The UTF-8 length of a string, counted without encoding it so the count does not
+     * show up in the allocation figures.
+     */
+    static long utf8Length(String value) {
+        long bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threadBean) {
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String layoutName = "v1";
+        String corpusPath = null;
+        String generatePath = null;
+        int threads = 1;
+        long events = 100000;
+        long rate = 0;
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option[0].equals("layout")) {
+                layoutName = option[1];
+            } else if (option[0].equals("corpus")) {
+                corpusPath = option[1];
+            } else if (option[0].equals("generate")) {
+                generatePath = option[1];
+            } else if (option[0].equals("threads")) {
+                threads = Integer.parseInt(option[1]);
+            } else if (option[0].equals("events")) {
+                events = Long.parseLong(option[1]);
+            } else if (option[0].equals("rate")) {
+                rate = Long.parseLong(option[1]);
+            } else {
+                System.err.println("Unknown option " + arg);
+                System.exit(1);
+            }
+        }
+
+        if (generatePath != null) {
+            Corpus.write(new CorpusGenerator().generate((int) events), new File(generatePath));
+            return;
+        }
+
+        List<EventDescriptor> corpus = corpusPath != null
+                ? Corpus.read(new File(corpusPath))
+                : new CorpusGenerator().generate(10000);
+        Layout layout = layoutName.equals("v0") ? new JSONEventLayoutV0() : new JSONEventLayoutV1();
+        layout.activateOptions();
+
+        ReplayReport report = new ReplayHarness(corpus)
+                .setThreads(threads)
+                .setEventsPerThread(events)
+                .setRatePerThread(rate)
+                .replay(layout);
+        System.out.print(report);
+    }
+}
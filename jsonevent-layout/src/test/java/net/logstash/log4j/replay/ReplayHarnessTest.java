@@ -0,0 +1,69 @@
+package net.logstash.log4j.replay;
+
+import junit.framework.Assert;
+import net.logstash.log4j.JSONEventLayoutV0;
+import net.logstash.log4j.JSONEventLayoutV1;
+import net.minidev.json.JSONValue;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+public class ReplayHarnessTest {
+
+    @Test
+    public void testCorpusRoundTrip() throws Exception {
+        List<EventDescriptor> corpus = new CorpusGenerator().setExceptionRatio(0.5).generate(100);
+        File file = File.createTempFile("corpus", ".ndjson");
+        file.deleteOnExit();
+        Corpus.write(corpus, file);
+        List<EventDescriptor> read = Corpus.read(file);
+
+        Assert.assertEquals("Corpus lost events", corpus.size(), read.size());
+        for (int i = 0; i < corpus.size(); i++) {
+            Assert.assertEquals("Message did not survive", corpus.get(i).message, read.get(i).message);
+            Assert.assertEquals("MDC did not survive", corpus.get(i).mdc, read.get(i).mdc);
+            Assert.assertEquals("Exception depth did not survive", corpus.get(i).exceptionDepth, read.get(i).exceptionDepth);
+        }
+    }
+
+    @Test
+    public void testReplayedEventsEncode() throws Exception {
+        JSONEventLayoutV1 layout = new JSONEventLayoutV1(false);
+        for (EventDescriptor descriptor : new CorpusGenerator().setExceptionRatio(0.5).generate(50)) {
+            String message = layout.format(descriptor.toLoggingEvent(System.currentTimeMillis()));
+            Assert.assertTrue("Event is not valid JSON", JSONValue.isValidJsonStrict(message));
+        }
+    }
+
+    @Test
+    public void testReplayReportsEveryEvent() throws Exception {
+        ReplayReport report = new ReplayHarness(new CorpusGenerator().generate(100))
+                .setThreads(2)
+                .setEventsPerThread(500)
+                .setWarmupEventsPerThread(10)
+                .replay(new JSONEventLayoutV1(false));
+
+        Assert.assertEquals("Not every event was replayed", 1000, report.events);
+        Assert.assertTrue("No output was measured", report.outputBytes > 0);
+        Assert.assertTrue("Percentiles are out of order", report.getLatencyNanos(50) <= report.getLatencyNanos(99.9));
+    }
+
+    @Test
+    public void testOutputIsCountedInUtf8Bytes() throws Exception {
+        String text = "a\u00e9\u20ac\ud83d\ude00";
+        Assert.assertEquals(text.getBytes("UTF-8").length, ReplayHarness.utf8Length(text));
+    }
+
+    @Test
+    @Ignore
+    public void measureJSONEventLayoutReplayPerformance() throws Exception {
+        List<EventDescriptor> corpus = new CorpusGenerator().generate(10000);
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        System.out.print(new ReplayHarness(corpus).setThreads(threads).replay(new JSONEventLayoutV0(false)));
+        System.out.print(new ReplayHarness(corpus).setThreads(threads).replay(new JSONEventLayoutV1(false)));
+        System.out.print(new ReplayHarness(corpus).setThreads(threads).replay(new JSONEventLayoutV1(true)));
+    }
+}
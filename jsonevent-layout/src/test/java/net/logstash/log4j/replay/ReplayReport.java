@@ -0,0 +1,65 @@
+package net.logstash.log4j.replay;
+
+import java.util.Arrays;
+
+/**
+ * What a replay run measured.
+ */
+public class ReplayReport {
+
+    public final String target;
+    public final int threads;
+    public final long events;
+    public final long elapsedNanos;
+    public final long[] latenciesNanos;
+    /** size of the formatted events in UTF-8, 0 when replaying into an appender */
+    public final long outputBytes;
+    /** bytes allocated by the replay threads, -1 if the JVM cannot tell */
+    public final long allocatedBytes;
+    public final long gcCount;
+    public final long gcMillis;
+
+    public ReplayReport(String target, int threads, long elapsedNanos, long[] latenciesNanos,
+                        long outputBytes, long allocatedBytes, long gcCount, long gcMillis) {
+        this.target = target;
+        this.threads = threads;
+        this.events = latenciesNanos.length;
+        this.elapsedNanos = elapsedNanos;
+        this.latenciesNanos = latenciesNanos;
+        Arrays.sort(this.latenciesNanos);
+        this.outputBytes = outputBytes;
+        this.allocatedBytes = allocatedBytes;
+        this.gcCount = gcCount;
+        this.gcMillis = gcMillis;
+    }
+
+    public double getEventsPerSecond() {
+        return events * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency at the percentile, in nanoseconds
+     */
+    public long getLatencyNanos(double percentile) {
+        if (latenciesNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * latenciesNanos.length) - 1;
+        return latenciesNanos[Math.max(0, Math.min(index, latenciesNanos.length - 1))];
+    }
+
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(target).append(" threads=").append(threads).append(" events=").append(events).append('\n');
+        report.append(String.format("  throughput: %.0f events/s%n", getEventsPerSecond()));
+        report.append(String.format("  latency:    p50=%dns p99=%dns p999=%dns max=%dns%n",
+                getLatencyNanos(50), getLatencyNanos(99), getLatencyNanos(99.9), getLatencyNanos(100)));
+        report.append(String.format("  output:     %.1f bytes/event%n", events == 0 ? 0.0 : (double) outputBytes / events));
+        if (allocatedBytes >= 0) {
+            report.append(String.format("  allocated:  %.1f bytes/event%n", events == 0 ? 0.0 : (double) allocatedBytes / events));
+        }
+        report.append(String.format("  gc:         %d collections, %d ms%n", gcCount, gcMillis));
+        return report.toString();
+    }
+}